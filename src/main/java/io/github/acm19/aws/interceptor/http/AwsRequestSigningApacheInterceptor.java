@@ -8,25 +8,34 @@
 
 package io.github.acm19.aws.interceptor.http;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import static software.amazon.awssdk.http.auth.aws.signer.SignerConstant.UNSIGNED_PAYLOAD;
+import static software.amazon.awssdk.http.auth.aws.signer.SignerConstant.X_AMZ_CONTENT_SHA256;
+import static software.amazon.awssdk.http.auth.aws.signer.SignerConstant.X_AMZ_DECODED_CONTENT_LENGTH;
+
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
-import org.apache.http.entity.BasicHttpEntity;
-import org.apache.http.entity.BufferedHttpEntity;
-import org.apache.http.message.BasicHeader;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.http.SdkHttpFullRequest;
 import software.amazon.awssdk.http.SdkHttpMethod;
@@ -42,6 +51,8 @@ import software.amazon.awssdk.regions.Region;
  */
 public final class AwsRequestSigningApacheInterceptor implements HttpRequestInterceptor {
     private final RequestSigner signer;
+    private final SigningOptions options;
+    private final BatchSigning batchSigning;
 
     /**
      * Creates an {@code AwsRequestSigningApacheInterceptor} with the
@@ -57,7 +68,7 @@ public final class AwsRequestSigningApacheInterceptor implements HttpRequestInte
                                               HttpSigner<AwsCredentialsIdentity> signer,
                                               AwsCredentialsProvider awsCredentialsProvider,
                                               Region region) {
-        this.signer = new RequestSigner(service, signer, awsCredentialsProvider, region);
+        this(service, signer, awsCredentialsProvider, region, SigningOptions.defaults());
     }
 
     /**
@@ -77,12 +88,72 @@ public final class AwsRequestSigningApacheInterceptor implements HttpRequestInte
         this(service, signer, awsCredentialsProvider, Region.of(region));
     }
 
+    /**
+     * Creates an {@code AwsRequestSigningApacheInterceptor} with the
+     * ability to sign request for a specific service in a region and
+     * defined credentials.
+     *
+     * @param service                service the client is connecting to
+     * @param signer                 signer implementation
+     * @param awsCredentialsProvider source of AWS credentials for signing
+     * @param region                 signing region
+     * @param options                signing options
+     */
+    public AwsRequestSigningApacheInterceptor(String service,
+                                              HttpSigner<AwsCredentialsIdentity> signer,
+                                              AwsCredentialsProvider awsCredentialsProvider,
+                                              Region region,
+                                              SigningOptions options) {
+        this(new RequestSigner(service, signer, awsCredentialsProvider, region, Objects.requireNonNull(options)),
+             options, new BatchSigning());
+    }
+
+    /**
+     * Creates an {@code AwsRequestSigningApacheInterceptor} signing with the signing
+     * context of {@code registry}, shared with the other interceptors created
+     * with the same registry, credentials provider, service, region, signer
+     * and equal options, see {@link SignerRegistry}.
+     *
+     * @param service                service the client is connecting to
+     * @param signer                 signer implementation
+     * @param awsCredentialsProvider source of AWS credentials for signing
+     * @param region                 signing region
+     * @param options                signing options
+     * @param registry               registry of the shared signing contexts
+     * @see SignerRegistry#shared()
+     */
+    public AwsRequestSigningApacheInterceptor(String service,
+                                              HttpSigner<AwsCredentialsIdentity> signer,
+                                              AwsCredentialsProvider awsCredentialsProvider,
+                                              Region region,
+                                              SigningOptions options,
+                                              SignerRegistry registry) {
+        this(registry.signer(service, signer, awsCredentialsProvider, region, Objects.requireNonNull(options)),
+             options, new BatchSigning());
+    }
+
+    private AwsRequestSigningApacheInterceptor(RequestSigner signer,
+                                               SigningOptions options,
+                                               BatchSigning batchSigning) {
+        this.options = options;
+        this.signer = signer;
+        this.batchSigning = batchSigning;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void process(HttpRequest request, HttpContext context)
             throws HttpException, IOException {
+        HttpRequest original = request instanceof HttpRequestWrapper
+                ? ((HttpRequestWrapper) request).getOriginal()
+                : request;
+        if (batchSigning.consume(original)) {
+            // signed ahead of time by signAll
+            return;
+        }
+
         URI requestUri = RequestSigner.buildUri(context, request.getRequestLine().getUri());
 
         // copy Apache HttpRequest to AWS request
@@ -90,58 +161,343 @@ public final class AwsRequestSigningApacheInterceptor implements HttpRequestInte
                 .method(SdkHttpMethod.fromValue(request.getRequestLine().getMethod()))
                 .uri(requestUri);
 
-        if (request instanceof HttpEntityEnclosingRequest) {
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest
+                ? ((HttpEntityEnclosingRequest) request).getEntity()
+                : null;
+        boolean unsignedPayload = options.unsignedPayload(
+                request.getRequestLine().getMethod(), requestUri, entity == null ? 0 : entity.getContentLength());
+        if (signer.presigns(request.getRequestLine().getMethod(), entity != null) && isRetargetable(request)) {
+            presign(request, requestBuilder, unsignedPayload);
+            return;
+        }
+        byte[] payloadSha256 = entity == null || unsignedPayload ? null : precomputedPayloadSha256(request, context);
+        byte[] compressedSha256 = null;
+        if (entity != null && payloadSha256 == null && compressesPayload(request, entity)) {
+            compressedSha256 = compressEntity((HttpEntityEnclosingRequest) request);
+            entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        }
+        if (entity != null && !unsignedPayload && payloadSha256 == null && isChunkSigned(entity)) {
+            signChunkedPayload((HttpEntityEnclosingRequest) request, requestBuilder);
+            return;
+        }
+
+        if (payloadSha256 != null) {
+            if (PayloadSha256.sampled(options.payloadSha256VerificationRate())
+                    && !PayloadSha256.matches(payloadSha256, hashEntity((HttpEntityEnclosingRequest) request))) {
+                throw new HttpException(PayloadSha256.MISMATCH_MESSAGE);
+            }
+        } else if (compressedSha256 != null && !unsignedPayload && signer.acceptsPayloadSha256()) {
+            payloadSha256 = compressedSha256;
+        }
+
+        PayloadBuffer buffer = null;
+        EntityContentProvider entityContent = null;
+        if (payloadSha256 == null && entity != null && !unsignedPayload) {
             HttpEntityEnclosingRequest httpEntityEnclosingRequest = (HttpEntityEnclosingRequest) request;
-            if (httpEntityEnclosingRequest.getEntity() != null) {
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                httpEntityEnclosingRequest.getEntity().writeTo(outputStream);
-                if (!httpEntityEnclosingRequest.getEntity().isRepeatable()) {
-                    // copy back the entity, so it can be read again
-                    BasicHttpEntity entity = new BasicHttpEntity();
-                    entity.setContent(new ByteArrayInputStream(outputStream.toByteArray()));
-                    // wrap into repeatable entity to support retries
-                    httpEntityEnclosingRequest.setEntity(new BufferedHttpEntity(entity));
+            if (options.streamingPayloadHash() && signer.acceptsPayloadSha256() || signer.signsNatively()) {
+                payloadSha256 = hashEntity(httpEntityEnclosingRequest);
+            } else if (holdsContent(entity)) {
+                // the signer reads the bytes or file the entity already holds
+                entityContent = new EntityContentProvider(entity::getContent);
+                requestBuilder.contentStreamProvider(entityContent);
+            } else {
+                // a replayable entity is sent as is, so its buffer is only needed for signing
+                boolean replayable = isReplayable(entity);
+                buffer = replayable
+                        ? PayloadBuffer.pooled(options.payloadSpillThreshold(), entity.getContentLength())
+                        : new PayloadBuffer(options.payloadSpillThreshold(), entity.getContentLength());
+                try {
+                    entity.writeTo(buffer);
+                } finally {
+                    buffer.close();
                 }
-                requestBuilder.contentStreamProvider(() -> new ByteArrayInputStream(outputStream.toByteArray()));
+                if (!replayable) {
+                    bufferEntity(httpEntityEnclosingRequest, buffer);
+                }
+                requestBuilder.contentStreamProvider(buffer::newInputStream);
             }
         }
 
-        Map<String, List<String>> headers = headerArrayToMap(request.getAllHeaders());
+        if (signer.signsNatively()) {
+            // only the signature headers are added to the request
+            signer.signNatively(request.getRequestLine().getMethod(), requestUri, request.getAllHeaders(),
+                                Header::getName, Header::getValue,
+                                unsignedPayload ? UNSIGNED_PAYLOAD : NativeV4Signer.contentSha256(payloadSha256),
+                                request::setHeader);
+            return;
+        }
+
+        HeaderMultimap headers = HeaderMultimap.of(request.getAllHeaders(), Header::getName, Header::getValue,
+                                                   options.signedHeaderPolicy());
         // adds a hash of the request payload when signing
-        headers.put("x-amz-content-sha256", Collections.singletonList("required"));
+        headers.set(X_AMZ_CONTENT_SHA256, unsignedPayload ? UNSIGNED_PAYLOAD : "required");
         requestBuilder.headers(headers);
-        SignedRequest signedRequest = signer.signRequest(requestBuilder.build());
+        SignedRequest signedRequest;
+        try {
+            signedRequest = unsignedPayload
+                    ? signer.signRequestWithUnsignedPayload(requestBuilder.build())
+                    : signer.signRequest(requestBuilder.build(), payloadSha256);
+        } finally {
+            if (buffer != null) {
+                buffer.release();
+            }
+            if (entityContent != null) {
+                entityContent.close();
+            }
+        }
+
+        // only the headers added or changed by the signer are copied back
+        HeaderMultimap.update(signedRequest.request().headers(), request::getHeaders, Header::getValue,
+                              request::removeHeaders, request::addHeader);
+    }
 
-        // copy everything back
-        request.setHeaders(mapToHeaderArray(signedRequest.request().headers()));
+    /**
+     * Signs {@code requests} ahead of time, in parallel on the common
+     * {@link ForkJoinPool}, see {@link #signAll(Collection, HttpHost, Executor)}.
+     *
+     * @param requests requests to sign
+     * @param target   host the requests are sent to, or {@code null} if their URIs are absolute
+     * @throws HttpException if a request cannot be signed
+     * @throws IOException   if the payload of a request cannot be read
+     */
+    public void signAll(Collection<? extends HttpRequest> requests, HttpHost target)
+            throws HttpException, IOException {
+        signAll(requests, target, ForkJoinPool.commonPool());
     }
 
-    private static Map<String, List<String>> headerArrayToMap(Header[] headers) {
-        Map<String, List<String>> headersMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        for (Header header : headers) {
-            if (!skipHeader(header)) {
-                headersMap.put(header.getName(),
-                               headersMap.getOrDefault(header.getName(),
-                                                       new LinkedList<>(Collections.singletonList(header.getValue()))));
+    /**
+     * Signs {@code requests} ahead of time, in parallel on {@code executor},
+     * and waits until all of them are signed. Credentials are resolved once
+     * for the whole batch, and payloads are read and hashed by the thread
+     * signing their request. A client with this interceptor then sends the
+     * signed requests without signing them again, unless they are sent more
+     * than once. Requests are signed as the interceptor signs them, so they
+     * must be sent before their signature expires.
+     *
+     * @param requests requests to sign
+     * @param target   host the requests are sent to, or {@code null} if their URIs are absolute
+     * @param executor executor signing the requests
+     * @throws HttpException if a request cannot be signed, other failures being suppressed
+     * @throws IOException   if the payload of a request cannot be read
+     */
+    public void signAll(Collection<? extends HttpRequest> requests, HttpHost target, Executor executor)
+            throws HttpException, IOException {
+        try {
+            batchSigning.signAll(requests, executor, signer.signingWith(signer.resolveCredentials(), request -> {
+                HttpContext context = new BasicHttpContext();
+                context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, target);
+                process(request, context);
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    // the client adds Content-Length from the entity when the request is sent
+                    request.removeHeaders(HTTP.CONTENT_LEN);
+                }
+            }));
+        } catch (HttpException | IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new HttpException("Cannot sign requests", ex);
+        }
+    }
+
+    /**
+     * Signs the request in its query string, reusing the presigned URL of an
+     * identical request if it has not expired yet.
+     *
+     * @param request         request to sign, without payload
+     * @param requestBuilder  AWS request with the method and URI of {@code request}
+     * @param unsignedPayload whether the payload is declared as {@code UNSIGNED-PAYLOAD}
+     */
+    private void presign(HttpRequest request, SdkHttpFullRequest.Builder requestBuilder, boolean unsignedPayload) {
+        requestBuilder.headers(HeaderMultimap.of(request.getAllHeaders(), Header::getName, Header::getValue,
+                                                 options.signedHeaderPolicy()));
+        String query = signer.presignedQuery(requestBuilder.build(), unsignedPayload);
+        URI target = URI.create(RequestSigner.withQuery(request.getRequestLine().getUri(), query));
+        if (request instanceof HttpRequestWrapper) {
+            ((HttpRequestWrapper) request).setURI(target);
+        } else {
+            ((HttpRequestBase) request).setURI(target);
+        }
+    }
+
+    /**
+     * Returns whether the URI of the request can be replaced, as presigning
+     * requires.
+     *
+     * @param request request to check
+     * @return {@code true} if the request is one of the client's
+     */
+    private static boolean isRetargetable(HttpRequest request) {
+        return request instanceof HttpRequestWrapper || request instanceof HttpRequestBase;
+    }
+
+    /**
+     * Returns the payload hash provided by the caller, if the signer can use it.
+     *
+     * @param request request to sign
+     * @param context request context
+     * @return the precomputed payload hash, or {@code null} if there is none
+     */
+    private byte[] precomputedPayloadSha256(HttpRequest request, HttpContext context) {
+        if (!signer.acceptsPayloadSha256()) {
+            return null;
+        }
+        Header header = request.getFirstHeader(X_AMZ_CONTENT_SHA256);
+        return PayloadSha256.precomputed(context.getAttribute(SigningOptions.PAYLOAD_SHA256_ATTRIBUTE),
+                                         header == null ? null : header.getValue());
+    }
+
+    /**
+     * Returns whether the entity is sent as signed chunks instead of being
+     * signed as a whole.
+     *
+     * @param entity entity to check
+     * @return {@code true} if the entity is chunked or of unknown length and
+     *         chunked signing is enabled
+     */
+    private boolean isChunkSigned(HttpEntity entity) {
+        return options.streamingChunkSize() > 0
+                && signer.supportsChunkedPayload()
+                && (entity.isChunked() || entity.getContentLength() < 0);
+    }
+
+    /**
+     * Signs the request headers for a {@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD}
+     * payload and replaces the entity with one signing each chunk as it is sent.
+     *
+     * @param request        request to sign
+     * @param requestBuilder AWS request with the method and URI of {@code request}
+     * @throws IOException if an entity of unknown length cannot be buffered
+     */
+    private void signChunkedPayload(HttpEntityEnclosingRequest request,
+                                    SdkHttpFullRequest.Builder requestBuilder) throws IOException {
+        if (request.getEntity().getContentLength() < 0) {
+            // the decoded length is signed, so it has to be known upfront
+            PayloadBuffer buffer = new PayloadBuffer(options.payloadSpillThreshold());
+            try {
+                request.getEntity().writeTo(buffer);
+            } finally {
+                buffer.close();
             }
+            bufferEntity(request, buffer);
         }
-        return headersMap;
+        HttpEntity entity = request.getEntity();
+        int chunkSize = options.streamingChunkSize();
+        long contentLength = ChunkSigner.encodedLength(entity.getContentLength(), chunkSize);
+
+        HeaderMultimap headers = HeaderMultimap.of(request.getAllHeaders(), Header::getName, Header::getValue,
+                                                   options.signedHeaderPolicy());
+        // the encoded length is sent instead of a chunked transfer encoding
+        headers.removeAll(HTTP.TRANSFER_ENCODING);
+        headers.set(HTTP.CONTENT_LEN, Long.toString(contentLength));
+        headers.set(X_AMZ_DECODED_CONTENT_LENGTH, Long.toString(entity.getContentLength()));
+        requestBuilder.headers(headers);
+        ChunkSigner chunkSigner = signer.signRequestWithChunkedPayload(requestBuilder.build(), chunkSize);
+
+        request.setEntity(new ChunkSignedEntity(entity, chunkSigner, contentLength));
+        HeaderMultimap.update(chunkSigner.signedRequest().headers(), request::getHeaders, Header::getValue,
+                              request::removeHeaders, request::addHeader);
+        request.removeHeaders(HTTP.TRANSFER_ENCODING);
     }
 
-    private static boolean skipHeader(Header header) {
-        return (HTTP.CONTENT_LEN.equalsIgnoreCase(header.getName())
-                && "0".equals(header.getValue())) // Strip Content-Length: 0
-                || HTTP.TARGET_HOST.equalsIgnoreCase(header.getName()); // Host comes from endpoint
+    /**
+     * Returns whether the entity is compressed before being signed.
+     *
+     * @param request request to sign
+     * @param entity  entity of the request
+     * @return {@code true} if compression is enabled and the entity is not encoded yet
+     */
+    private boolean compressesPayload(HttpRequest request, HttpEntity entity) {
+        return options.gzipPayload()
+                && entity.getContentEncoding() == null
+                && !request.containsHeader(HTTP.CONTENT_ENCODING);
+    }
+
+    /**
+     * Replaces the entity with its gzip compressed content, which is hashed
+     * while it is compressed, and updates the content headers to match.
+     *
+     * @param request request with the entity to compress
+     * @return SHA-256 of the compressed entity
+     * @throws IOException if the entity cannot be read
+     */
+    private byte[] compressEntity(HttpEntityEnclosingRequest request) throws IOException {
+        HttpEntity entity = request.getEntity();
+        GzipPayloadStream gzipStream = new GzipPayloadStream(options.payloadSpillThreshold(), signer.digests());
+        try {
+            entity.writeTo(gzipStream);
+        } finally {
+            gzipStream.close();
+        }
+        PayloadBuffer payload = gzipStream.payload();
+        request.setEntity(new PayloadBufferEntity(payload, entity, GzipPayloadStream.CONTENT_ENCODING));
+        // the content headers have already been set from the original entity
+        request.removeHeaders(HTTP.TRANSFER_ENCODING);
+        request.setHeader(HTTP.CONTENT_LEN, Long.toString(payload.size()));
+        request.setHeader(HTTP.CONTENT_ENCODING, GzipPayloadStream.CONTENT_ENCODING);
+        return gzipStream.sha256();
     }
 
-    private static Header[] mapToHeaderArray(Map<String, List<String>> mapHeaders) {
-        Header[] headers = new Header[mapHeaders.size()];
-        int i = 0;
-        for (Map.Entry<String, List<String>> headerEntry : mapHeaders.entrySet()) {
-            for (String value : headerEntry.getValue()) {
-                headers[i++] = new BasicHeader(headerEntry.getKey(), value);
+    /**
+     * Hashes the entity while reading it once. Repeatable entities are only
+     * hashed, others are also buffered so they can be sent.
+     *
+     * @param request request with the entity to hash
+     * @return SHA-256 of the entity
+     * @throws IOException if the entity cannot be read
+     */
+    private byte[] hashEntity(HttpEntityEnclosingRequest request) throws IOException {
+        HttpEntity entity = request.getEntity();
+        if (entity instanceof FileEntity) {
+            try (InputStream content = entity.getContent()) {
+                if (content instanceof FileInputStream) {
+                    return Sha256OutputStream.sha256(((FileInputStream) content).getChannel(),
+                                                     signer.digests());
+                }
             }
         }
-        return headers;
+        if (isReplayable(entity)) {
+            // byte array and string entities write their content in a single call
+            Sha256OutputStream hashingStream = new Sha256OutputStream(signer.digests());
+            entity.writeTo(hashingStream);
+            return hashingStream.sha256();
+        }
+
+        PayloadBuffer buffer = new PayloadBuffer(options.payloadSpillThreshold(), entity.getContentLength());
+        Sha256OutputStream hashingStream = new Sha256OutputStream(signer.digests(), buffer);
+        try {
+            entity.writeTo(hashingStream);
+        } finally {
+            buffer.close();
+        }
+        bufferEntity(request, buffer);
+        return hashingStream.sha256();
+    }
+
+    /**
+     * Returns whether the entity can be read again after being hashed. Entities
+     * backed by a stream are not trusted to be repeatable.
+     *
+     * @param entity entity to check
+     * @return {@code true} if the entity can be read more than once
+     */
+    private static boolean isReplayable(HttpEntity entity) {
+        return entity.isRepeatable() && !entity.isStreaming();
+    }
+
+    /**
+     * Returns whether the entity already holds its whole content, in memory or
+     * in a file, so it can be read in place for signing.
+     *
+     * @param entity entity to check
+     * @return {@code true} if the content does not have to be buffered
+     */
+    private static boolean holdsContent(HttpEntity entity) {
+        return entity instanceof ByteArrayEntity || entity instanceof StringEntity || entity instanceof FileEntity
+                || entity instanceof PayloadBufferEntity;
+    }
+
+    private static void bufferEntity(HttpEntityEnclosingRequest request, PayloadBuffer buffer) {
+        // copy back the entity as a repeatable entity, so it can be read again and retried
+        request.setEntity(new PayloadBufferEntity(buffer, request.getEntity()));
     }
 }
@@ -8,21 +8,20 @@
 
 package io.github.acm19.aws.interceptor.http;
 
-import static java.util.Collections.singletonList;
-import static software.amazon.awssdk.http.ContentStreamProvider.fromInputStreamSupplier;
+import static software.amazon.awssdk.http.auth.aws.signer.SignerConstant.UNSIGNED_PAYLOAD;
 import static software.amazon.awssdk.http.auth.aws.signer.SignerConstant.X_AMZ_CONTENT_SHA256;
+import static software.amazon.awssdk.http.auth.aws.signer.SignerConstant.X_AMZ_DECODED_CONTENT_LENGTH;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.function.Supplier;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import org.apache.hc.client5.http.async.AsyncExecCallback;
 import org.apache.hc.client5.http.async.AsyncExecChain;
 import org.apache.hc.client5.http.async.AsyncExecChainHandler;
@@ -31,16 +30,20 @@ import org.apache.hc.client5.http.classic.ExecChain;
 import org.apache.hc.client5.http.classic.ExecChainHandler;
 import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.ClassicHttpResponse;
-import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
 import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpException;
 import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.HttpRequest;
-import org.apache.hc.core5.http.io.entity.BasicHttpEntity;
-import org.apache.hc.core5.http.io.entity.BufferedHttpEntity;
-import org.apache.hc.core5.http.message.BasicHeader;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.FileEntity;
+import org.apache.hc.core5.http.io.entity.StringEntity;
 import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.http.ContentStreamProvider;
 import software.amazon.awssdk.http.SdkHttpFullRequest;
 import software.amazon.awssdk.http.SdkHttpMethod;
 import software.amazon.awssdk.http.auth.spi.signer.HttpSigner;
@@ -55,6 +58,8 @@ import software.amazon.awssdk.regions.Region;
  */
 public final class AwsRequestSigningApacheV5Interceptor implements ExecChainHandler, AsyncExecChainHandler {
     private final RequestSigner signer;
+    private final SigningOptions options;
+    private final BatchSigning batchSigning;
 
     /**
      * Creates an {@code ExecChainHandler} and {@code AsyncExecChainHandler} with the
@@ -70,7 +75,98 @@ public final class AwsRequestSigningApacheV5Interceptor implements ExecChainHand
                                                 HttpSigner<AwsCredentialsIdentity> signer,
                                                 AwsCredentialsProvider awsCredentialsProvider,
                                                 Region region) {
-        this.signer = new RequestSigner(service, signer, awsCredentialsProvider, region);
+        this(service, signer, awsCredentialsProvider, region, SigningOptions.defaults());
+    }
+
+    /**
+     * Creates an {@code ExecChainHandler} and {@code AsyncExecChainHandler} with the
+     * ability to sign request for a specific service in a region and
+     * defined credentials.
+     *
+     * @param service                service the client is connecting to
+     * @param signer                 signer implementation.
+     * @param awsCredentialsProvider source of AWS credentials for signing
+     * @param region                 signing region
+     * @param options                signing options
+     */
+    public AwsRequestSigningApacheV5Interceptor(String service,
+                                                HttpSigner<AwsCredentialsIdentity> signer,
+                                                AwsCredentialsProvider awsCredentialsProvider,
+                                                Region region,
+                                                SigningOptions options) {
+        this(new RequestSigner(service, signer, awsCredentialsProvider, region, Objects.requireNonNull(options)),
+             options, new BatchSigning());
+    }
+
+    /**
+     * Creates an {@code ExecChainHandler} and {@code AsyncExecChainHandler} signing with the signing
+     * context of {@code registry}, shared with the other interceptors created
+     * with the same registry, credentials provider, service, region, signer
+     * and equal options, see {@link SignerRegistry}.
+     *
+     * @param service                service the client is connecting to
+     * @param signer                 signer implementation
+     * @param awsCredentialsProvider source of AWS credentials for signing
+     * @param region                 signing region
+     * @param options                signing options
+     * @param registry               registry of the shared signing contexts
+     * @see SignerRegistry#shared()
+     */
+    public AwsRequestSigningApacheV5Interceptor(String service,
+                                                HttpSigner<AwsCredentialsIdentity> signer,
+                                                AwsCredentialsProvider awsCredentialsProvider,
+                                                Region region,
+                                                SigningOptions options,
+                                                SignerRegistry registry) {
+        this(registry.signer(service, signer, awsCredentialsProvider, region, Objects.requireNonNull(options)),
+             options, new BatchSigning());
+    }
+
+    private AwsRequestSigningApacheV5Interceptor(RequestSigner signer,
+                                                 SigningOptions options,
+                                                 BatchSigning batchSigning) {
+        this.options = options;
+        this.signer = signer;
+        this.batchSigning = batchSigning;
+    }
+
+    /**
+     * Signs {@code requests} ahead of time, in parallel on the common
+     * {@link ForkJoinPool}, see {@link #signAll(Collection, Executor)}.
+     *
+     * @param requests requests to sign
+     * @throws HttpException if a request cannot be signed
+     * @throws IOException   if the payload of a request cannot be read
+     */
+    public void signAll(Collection<? extends ClassicHttpRequest> requests) throws HttpException, IOException {
+        signAll(requests, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Signs classic {@code requests} ahead of time, in parallel on
+     * {@code executor}, and waits until all of them are signed. Credentials
+     * are resolved once for the whole batch, and payloads are read and hashed
+     * by the thread signing their request. A classic client with this
+     * interceptor then sends the signed requests without signing them again,
+     * unless they are sent more than once. Requests are signed as the
+     * interceptor signs them, so they must be sent before their signature
+     * expires.
+     *
+     * @param requests requests to sign, with absolute URIs
+     * @param executor executor signing the requests
+     * @throws HttpException if a request cannot be signed, other failures being suppressed
+     * @throws IOException   if the payload of a request cannot be read
+     */
+    public void signAll(Collection<? extends ClassicHttpRequest> requests, Executor executor)
+            throws HttpException, IOException {
+        try {
+            batchSigning.signAll(requests, executor, signer.signingWith(
+                    signer.resolveCredentials(), request -> signRequest(request, HttpCoreContext.create())));
+        } catch (HttpException | IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new HttpException("Cannot sign requests", ex);
+        }
     }
 
     /**
@@ -82,7 +178,42 @@ public final class AwsRequestSigningApacheV5Interceptor implements ExecChainHand
                         AsyncExecChain.Scope scope,
                         AsyncExecChain execChain,
                         AsyncExecCallback asyncExecCallback) throws HttpException, IOException {
-        signRequest(request, getContentStreamSupplier(scope.originalRequest));
+        if (!signer.hasCredentials()) {
+            // proceeds once the credentials are resolved instead of blocking the I/O thread
+            signer.refreshCredentials().whenComplete((credentials, ex) -> {
+                if (ex != null) {
+                    asyncExecCallback.failed(ex instanceof Exception
+                            ? (Exception) ex
+                            : new HttpException("Cannot resolve credentials", ex));
+                    return;
+                }
+                try {
+                    signAndProceed(request, entityProducer, scope, execChain, asyncExecCallback);
+                } catch (HttpException | IOException | RuntimeException signingEx) {
+                    asyncExecCallback.failed(signingEx);
+                }
+            });
+            return;
+        }
+        signAndProceed(request, entityProducer, scope, execChain, asyncExecCallback);
+    }
+
+    private void signAndProceed(HttpRequest request,
+                                AsyncEntityProducer entityProducer,
+                                AsyncExecChain.Scope scope,
+                                AsyncExecChain execChain,
+                                AsyncExecCallback asyncExecCallback) throws HttpException, IOException {
+        if (entityProducer == null) {
+            signRequest(request, null, 0, scope.clientContext, null);
+        } else if (compressesPayload(request, entityProducer, scope.clientContext)) {
+            signCompressedEntityProducer(request, entityProducer, scope, execChain, asyncExecCallback);
+            return;
+        } else if (scope.originalRequest instanceof SimpleHttpRequest) {
+            signRequest(request, scope.originalRequest, entityProducer.getContentLength(), scope.clientContext, null);
+        } else {
+            signEntityProducer(request, entityProducer, scope, execChain, asyncExecCallback);
+            return;
+        }
         execChain.proceed(request, entityProducer, scope, asyncExecCallback);
     }
 
@@ -90,93 +221,486 @@ public final class AwsRequestSigningApacheV5Interceptor implements ExecChainHand
     public ClassicHttpResponse execute(ClassicHttpRequest classicHttpRequest,
                                        ExecChain.Scope scope,
                                        ExecChain execChain) throws IOException, HttpException {
-        signRequest(classicHttpRequest, getContentStreamSupplier(classicHttpRequest));
+        // requests signed ahead of time by signAll are sent as they are
+        if (!batchSigning.consume(scope.originalRequest)) {
+            signRequest(classicHttpRequest, scope.clientContext);
+        }
         return execChain.proceed(classicHttpRequest, scope);
     }
 
+    private void signRequest(ClassicHttpRequest classicHttpRequest, HttpContext context)
+            throws IOException, HttpException {
+        HttpEntity entity = classicHttpRequest.getEntity();
+        byte[] compressedSha256 = null;
+        if (entity != null && compressesPayload(classicHttpRequest, entity, context)) {
+            compressedSha256 = compressEntity(classicHttpRequest);
+            entity = classicHttpRequest.getEntity();
+        }
+        long contentLength = entity == null ? 0 : entity.getContentLength();
+        if (isChunkSigned(entity)
+                && precomputedPayloadSha256(classicHttpRequest, context) == null
+                && !options.unsignedPayload(
+                        classicHttpRequest.getMethod(), buildUri(classicHttpRequest), contentLength)) {
+            signChunkedPayload(classicHttpRequest);
+        } else {
+            signRequest(classicHttpRequest, classicHttpRequest, contentLength, context, compressedSha256);
+        }
+    }
+
+    private void signRequest(HttpRequest request,
+                             HttpRequest contentRequest,
+                             long contentLength,
+                             HttpContext context,
+                             byte[] contentSha256) throws HttpException, IOException {
+        URI uri = buildUri(request);
+        boolean hasPayload = contentRequest instanceof ClassicHttpRequest
+                ? ((ClassicHttpRequest) contentRequest).getEntity() != null
+                : contentRequest != null;
+        if (signer.presigns(request.getMethod(), hasPayload)) {
+            presign(request, uri, options.unsignedPayload(request.getMethod(), uri, contentLength));
+            return;
+        }
+        byte[] precomputedSha256 = contentRequest == null ? null : precomputedPayloadSha256(request, context);
+        if (options.unsignedPayload(request.getMethod(), uri, contentLength)) {
+            signRequest(request, uri, null, null, true);
+        } else if (precomputedSha256 != null) {
+            if (PayloadSha256.sampled(options.payloadSha256VerificationRate())) {
+                verifyPayloadSha256(precomputedSha256, hashContent(contentRequest));
+            }
+            signRequest(request, uri, null, precomputedSha256, false);
+        } else if (contentSha256 != null && signer.acceptsPayloadSha256()) {
+            signRequest(request, uri, null, contentSha256, false);
+        } else if (options.streamingPayloadHash() && signer.acceptsPayloadSha256() || signer.signsNatively()) {
+            signRequest(request, uri, null, hashContent(contentRequest), false);
+        } else if (contentRequest instanceof ClassicHttpRequest
+                && holdsContent(((ClassicHttpRequest) contentRequest).getEntity())) {
+            // the signer reads the bytes or file the entity already holds
+            HttpEntity entity = ((ClassicHttpRequest) contentRequest).getEntity();
+            try (EntityContentProvider entityContent = new EntityContentProvider(entity::getContent)) {
+                signRequest(request, uri, entityContent, null, false);
+            }
+        } else {
+            PayloadBuffer buffer = bufferContent(contentRequest);
+            try {
+                signRequest(request, uri, buffer == null ? null : buffer::newInputStream, null, false);
+            } finally {
+                if (buffer != null) {
+                    buffer.release();
+                }
+            }
+        }
+    }
+
     private void signRequest(HttpRequest request,
-                             Supplier<InputStream> contentStreamSupplier) throws IOException {
+                             URI uri,
+                             ContentStreamProvider contentStreamProvider,
+                             byte[] payloadSha256,
+                             boolean unsignedPayload) {
+        if (signer.signsNatively()) {
+            // only the signature headers are added to the request
+            signer.signNatively(request.getMethod(), uri, request.getHeaders(), Header::getName, Header::getValue,
+                                unsignedPayload ? UNSIGNED_PAYLOAD : NativeV4Signer.contentSha256(payloadSha256),
+                                request::setHeader);
+            return;
+        }
+
         // copy Apache HttpRequest to AWS request
         SdkHttpFullRequest.Builder requestBuilder = SdkHttpFullRequest.builder()
                 .method(SdkHttpMethod.fromValue(request.getMethod()))
-                .uri(buildUri(request));
+                .uri(uri);
 
-        if (contentStreamSupplier != null) {
-            requestBuilder.contentStreamProvider(fromInputStreamSupplier(contentStreamSupplier));
+        if (contentStreamProvider != null) {
+            requestBuilder.contentStreamProvider(contentStreamProvider);
         }
 
-        Map<String, List<String>> headers = headerArrayToMap(request.getHeaders());
+        HeaderMultimap headers = HeaderMultimap.of(request.getHeaders(), Header::getName, Header::getValue,
+                                                   options.signedHeaderPolicy());
         // adds a hash of the request payload when signing
-        headers.put(X_AMZ_CONTENT_SHA256, singletonList("required"));
+        headers.set(X_AMZ_CONTENT_SHA256, unsignedPayload ? UNSIGNED_PAYLOAD : "required");
         requestBuilder.headers(headers);
-        SignedRequest signedRequest = signer.signRequest(requestBuilder.build());
+        SignedRequest signedRequest = unsignedPayload
+                ? signer.signRequestWithUnsignedPayload(requestBuilder.build())
+                : signer.signRequest(requestBuilder.build(), payloadSha256);
 
-        // copy everything back
-        request.setHeaders(mapToHeaderArray(signedRequest.request().headers()));
+        // only the headers added or changed by the signer are copied back
+        HeaderMultimap.update(signedRequest.request().headers(), request::getHeaders, Header::getValue,
+                              request::removeHeaders, request::addHeader);
+    }
+
+    /**
+     * Signs the request in its query string, reusing the presigned URL of an
+     * identical request if it has not expired yet.
+     *
+     * @param request         request to sign, without payload
+     * @param uri             request URI
+     * @param unsignedPayload whether the payload is declared as {@code UNSIGNED-PAYLOAD}
+     */
+    private void presign(HttpRequest request, URI uri, boolean unsignedPayload) {
+        SdkHttpFullRequest sdkRequest = SdkHttpFullRequest.builder()
+                .method(SdkHttpMethod.fromValue(request.getMethod()))
+                .uri(uri)
+                .headers(HeaderMultimap.of(request.getHeaders(), Header::getName, Header::getValue,
+                                           options.signedHeaderPolicy()))
+                .build();
+        String query = signer.presignedQuery(sdkRequest, unsignedPayload);
+        request.setPath(RequestSigner.withQuery(request.getPath(), query));
+    }
+
+    /**
+     * Returns the payload hash provided by the caller, if the signer can use it.
+     *
+     * @param request request to sign
+     * @param context request context
+     * @return the precomputed payload hash, or {@code null} if there is none
+     */
+    private byte[] precomputedPayloadSha256(HttpRequest request, HttpContext context) {
+        if (!signer.acceptsPayloadSha256()) {
+            return null;
+        }
+        Header header = request.getFirstHeader(X_AMZ_CONTENT_SHA256);
+        return PayloadSha256.precomputed(context.getAttribute(SigningOptions.PAYLOAD_SHA256_ATTRIBUTE),
+                                         header == null ? null : header.getValue());
+    }
+
+    private static void verifyPayloadSha256(byte[] precomputedSha256, byte[] payloadSha256) throws HttpException {
+        if (!PayloadSha256.matches(precomputedSha256, payloadSha256)) {
+            throw new HttpException(PayloadSha256.MISMATCH_MESSAGE);
+        }
+    }
+
+    /**
+     * Returns whether the entity is sent as signed chunks instead of being
+     * signed as a whole.
+     *
+     * @param entity entity to check, may be {@code null}
+     * @return {@code true} if the entity is chunked or of unknown length and
+     *         chunked signing is enabled
+     */
+    private boolean isChunkSigned(HttpEntity entity) {
+        return entity != null
+                && options.streamingChunkSize() > 0
+                && signer.supportsChunkedPayload()
+                && (entity.isChunked() || entity.getContentLength() < 0);
     }
 
-    private static Supplier<InputStream> getContentStreamSupplier(HttpRequest request) throws IOException {
-        if (request instanceof ClassicHttpRequest) {
+    /**
+     * Signs the request headers for a {@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD}
+     * payload and replaces the entity with one signing each chunk as it is sent.
+     *
+     * @param request request to sign
+     * @throws IOException if an entity of unknown length cannot be buffered
+     */
+    private void signChunkedPayload(ClassicHttpRequest request) throws IOException {
+        if (request.getEntity().getContentLength() < 0) {
+            // the decoded length is signed, so it has to be known upfront
+            PayloadBuffer buffer = new PayloadBuffer(options.payloadSpillThreshold());
+            try {
+                request.getEntity().writeTo(buffer);
+            } finally {
+                buffer.close();
+            }
+            bufferEntity(request, buffer);
+        }
+        HttpEntity entity = request.getEntity();
+        int chunkSize = options.streamingChunkSize();
+        long contentLength = ChunkSigner.encodedLength(entity.getContentLength(), chunkSize);
+
+        SdkHttpFullRequest.Builder requestBuilder = SdkHttpFullRequest.builder()
+                .method(SdkHttpMethod.fromValue(request.getMethod()))
+                .uri(buildUri(request));
+        HeaderMultimap headers = HeaderMultimap.of(request.getHeaders(), Header::getName, Header::getValue,
+                                                   options.signedHeaderPolicy());
+        // the content headers of the entity are added later in the chain, but must be signed now
+        headers.set(HttpHeaders.CONTENT_LENGTH, Long.toString(contentLength));
+        headers.set(X_AMZ_DECODED_CONTENT_LENGTH, Long.toString(entity.getContentLength()));
+        if (entity.getContentEncoding() != null && !headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, entity.getContentEncoding());
+        }
+        requestBuilder.headers(headers);
+        ChunkSigner chunkSigner = signer.signRequestWithChunkedPayload(requestBuilder.build(), chunkSize);
+
+        request.setEntity(new ChunkSignedV5Entity(entity, chunkSigner, contentLength));
+        HeaderMultimap.update(chunkSigner.signedRequest().headers(), request::getHeaders, Header::getValue,
+                              request::removeHeaders, request::addHeader);
+        // Content-Length is set from the entity
+        request.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+    }
+
+    /**
+     * Signs a request whose content is produced by {@code entityProducer}. The
+     * content is drained into a buffer without blocking, the request is then
+     * signed and proceeds with a producer replaying the buffer. Requests with a
+     * precomputed payload hash proceed with the original producer, unless the
+     * hash is verified.
+     *
+     * @param request           request to sign
+     * @param entityProducer    producer of the request content
+     * @param scope             execution scope
+     * @param execChain         chain to proceed with once signed
+     * @param asyncExecCallback callback notified if the content cannot be read
+     * @throws HttpException if the request cannot be sent
+     * @throws IOException   if the request cannot be sent
+     */
+    private void signEntityProducer(HttpRequest request,
+                                    AsyncEntityProducer entityProducer,
+                                    AsyncExecChain.Scope scope,
+                                    AsyncExecChain execChain,
+                                    AsyncExecCallback asyncExecCallback) throws HttpException, IOException {
+        URI uri = buildUri(request);
+        if (options.unsignedPayload(request.getMethod(), uri, entityProducer.getContentLength())) {
+            signRequest(request, uri, null, null, true);
+            execChain.proceed(request, entityProducer, scope, asyncExecCallback);
+            return;
+        }
+        byte[] precomputedSha256 = precomputedPayloadSha256(request, scope.clientContext);
+        if (precomputedSha256 != null && !PayloadSha256.sampled(options.payloadSha256VerificationRate())) {
+            signRequest(request, uri, null, precomputedSha256, false);
+            execChain.proceed(request, entityProducer, scope, asyncExecCallback);
+            return;
+        }
+
+        PayloadBuffer buffer = new PayloadBuffer(options.payloadSpillThreshold(), entityProducer.getContentLength());
+        boolean hashed = precomputedSha256 != null
+                || options.streamingPayloadHash() && signer.acceptsPayloadSha256()
+                || signer.signsNatively();
+        Sha256OutputStream hashingStream = new Sha256OutputStream(signer.digests(), buffer);
+        OutputStream target = hashed ? hashingStream : buffer;
+        new EntityProducerDrain(entityProducer, target, trailers -> {
+            buffer.close();
+            if (hashed) {
+                byte[] payloadSha256 = hashingStream.sha256();
+                if (precomputedSha256 != null) {
+                    verifyPayloadSha256(precomputedSha256, payloadSha256);
+                }
+                signRequest(request, uri, null, payloadSha256, false);
+            } else {
+                signRequest(request, uri, buffer::newInputStream, null, false);
+            }
+            execChain.proceed(request, new PayloadBufferEntityProducer(buffer, entityProducer, trailers),
+                              scope, asyncExecCallback);
+        }, ex -> {
+            try {
+                buffer.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            asyncExecCallback.failed(ex);
+        }).start();
+    }
+
+    /**
+     * Signs a request whose content is produced by {@code entityProducer} and
+     * compressed before being sent. The content is compressed, hashed and
+     * buffered while it is drained, the request then proceeds with a producer
+     * replaying the compressed buffer.
+     *
+     * @param request           request to sign
+     * @param entityProducer    producer of the request content
+     * @param scope             execution scope
+     * @param execChain         chain to proceed with once signed
+     * @param asyncExecCallback callback notified if the content cannot be read
+     * @throws HttpException if the request cannot be sent
+     * @throws IOException   if the request cannot be sent
+     */
+    private void signCompressedEntityProducer(HttpRequest request,
+                                              AsyncEntityProducer entityProducer,
+                                              AsyncExecChain.Scope scope,
+                                              AsyncExecChain execChain,
+                                              AsyncExecCallback asyncExecCallback) throws HttpException, IOException {
+        URI uri = buildUri(request);
+        GzipPayloadStream gzipStream = new GzipPayloadStream(options.payloadSpillThreshold(), signer.digests());
+        new EntityProducerDrain(entityProducer, gzipStream, trailers -> {
+            gzipStream.close();
+            PayloadBuffer payload = gzipStream.payload();
+            request.setHeader(HttpHeaders.CONTENT_ENCODING, GzipPayloadStream.CONTENT_ENCODING);
+            if (options.unsignedPayload(request.getMethod(), uri, payload.size())) {
+                signRequest(request, uri, null, null, true);
+            } else if (signer.acceptsPayloadSha256()) {
+                signRequest(request, uri, null, gzipStream.sha256(), false);
+            } else {
+                signRequest(request, uri, payload::newInputStream, null, false);
+            }
+            execChain.proceed(request,
+                              new PayloadBufferEntityProducer(payload, entityProducer, trailers,
+                                                              GzipPayloadStream.CONTENT_ENCODING),
+                              scope, asyncExecCallback);
+        }, ex -> {
+            try {
+                gzipStream.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            asyncExecCallback.failed(ex);
+        }).start();
+    }
+
+    /**
+     * Buffers the request content for the signer to read. Entities that cannot
+     * be read again are replaced by their buffered copy.
+     *
+     * @param request request with the content to buffer, or {@code null} if there is none
+     * @return the buffered content, to be released once signed, or {@code null} if there is none
+     * @throws IOException if the content cannot be read
+     */
+    private PayloadBuffer bufferContent(HttpRequest request) throws IOException {
+        if (request == null) {
+            return null;
+        } else if (request instanceof ClassicHttpRequest) {
             ClassicHttpRequest classicHttpRequest = (ClassicHttpRequest) request;
-            if (classicHttpRequest.getEntity() == null) {
+            HttpEntity entity = classicHttpRequest.getEntity();
+            if (entity == null) {
                 return null;
             }
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            classicHttpRequest.getEntity().writeTo(outputStream);
-            if (!classicHttpRequest.getEntity().isRepeatable()) {
-                // copy back the entity, so it can be read again
-                BasicHttpEntity entity = new BasicHttpEntity(
-                        new ByteArrayInputStream(outputStream.toByteArray()),
-                        ContentType.parse(classicHttpRequest.getEntity().getContentType()));
-                // wrap into repeatable entity to support retries
-                classicHttpRequest.setEntity(new BufferedHttpEntity(entity));
-            }
-            return () -> new ByteArrayInputStream(outputStream.toByteArray());
+            // a replayable entity is sent as is, so its buffer is only needed for signing
+            boolean replayable = isReplayable(entity);
+            PayloadBuffer buffer = replayable
+                    ? PayloadBuffer.pooled(options.payloadSpillThreshold(), entity.getContentLength())
+                    : new PayloadBuffer(options.payloadSpillThreshold(), entity.getContentLength());
+            try {
+                entity.writeTo(buffer);
+            } finally {
+                buffer.close();
+            }
+            if (!replayable) {
+                bufferEntity(classicHttpRequest, buffer);
+            }
+            return buffer;
         } else if (request instanceof SimpleHttpRequest) {
             SimpleHttpRequest simpleHttpRequest = (SimpleHttpRequest) request;
             if (simpleHttpRequest.getBody() == null) {
                 return null;
             }
-            return () -> new ByteArrayInputStream(simpleHttpRequest.getBodyBytes());
+            return PayloadBuffer.wrap(simpleHttpRequest.getBodyBytes());
         }
 
         throw new IllegalArgumentException("Unsupported request type: " + request.getClass());
     }
 
-    private static URI buildUri(HttpRequest request) throws IOException {
+    /**
+     * Returns whether the request content is compressed before being signed.
+     *
+     * @param request request to sign
+     * @param entity  content of the request
+     * @param context request context
+     * @return {@code true} if compression is enabled and the content is neither
+     *         encoded yet nor hashed by the caller
+     */
+    private boolean compressesPayload(HttpRequest request, EntityDetails entity, HttpContext context) {
+        return options.gzipPayload()
+                && entity.getContentEncoding() == null
+                && !request.containsHeader(HttpHeaders.CONTENT_ENCODING)
+                && precomputedPayloadSha256(request, context) == null;
+    }
+
+    /**
+     * Replaces the entity with its gzip compressed content, which is hashed
+     * while it is compressed.
+     *
+     * @param request request with the entity to compress
+     * @return SHA-256 of the compressed entity
+     * @throws IOException if the entity cannot be read
+     */
+    private byte[] compressEntity(ClassicHttpRequest request) throws IOException {
+        HttpEntity entity = request.getEntity();
+        GzipPayloadStream gzipStream = new GzipPayloadStream(options.payloadSpillThreshold(), signer.digests());
         try {
-            return request.getUri();
-        } catch (URISyntaxException ex) {
-            throw new IOException("Invalid URI", ex);
+            entity.writeTo(gzipStream);
+        } finally {
+            gzipStream.close();
         }
+        request.setEntity(new PayloadBufferV5Entity(gzipStream.payload(), entity, GzipPayloadStream.CONTENT_ENCODING));
+        // Content-Length is set from the entity later in the chain, but Content-Encoding must be signed now
+        request.setHeader(HttpHeaders.CONTENT_ENCODING, GzipPayloadStream.CONTENT_ENCODING);
+        return gzipStream.sha256();
     }
 
-    private static Map<String, List<String>> headerArrayToMap(Header[] headers) {
-        Map<String, List<String>> headersMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        for (Header header : headers) {
-            if (!skipHeader(header)) {
-                headersMap.put(header.getName(),
-                               headersMap.getOrDefault(header.getName(),
-                                                       new LinkedList<>(singletonList(header.getValue()))));
+    /**
+     * Hashes the request content while reading it once. Repeatable entities are
+     * only hashed, others are also buffered so they can be sent.
+     *
+     * @param request request with the content to hash, or {@code null} if there is none
+     * @return SHA-256 of the content, or {@code null} if there is none
+     * @throws IOException if the content cannot be read
+     */
+    private byte[] hashContent(HttpRequest request) throws IOException {
+        if (request == null) {
+            return null;
+        } else if (request instanceof ClassicHttpRequest) {
+            ClassicHttpRequest classicHttpRequest = (ClassicHttpRequest) request;
+            HttpEntity entity = classicHttpRequest.getEntity();
+            if (entity == null) {
+                return null;
+            }
+            if (entity instanceof FileEntity) {
+                try (InputStream content = entity.getContent()) {
+                    if (content instanceof FileInputStream) {
+                        return Sha256OutputStream.sha256(((FileInputStream) content).getChannel(),
+                                                         signer.digests());
+                    }
+                }
+            }
+            if (isReplayable(entity)) {
+                // byte array and string entities write their content in a single call
+                Sha256OutputStream hashingStream = new Sha256OutputStream(signer.digests());
+                entity.writeTo(hashingStream);
+                return hashingStream.sha256();
             }
+            PayloadBuffer buffer = new PayloadBuffer(options.payloadSpillThreshold(), entity.getContentLength());
+            Sha256OutputStream hashingStream = new Sha256OutputStream(signer.digests(), buffer);
+            try {
+                entity.writeTo(hashingStream);
+            } finally {
+                buffer.close();
+            }
+            bufferEntity(classicHttpRequest, buffer);
+            return hashingStream.sha256();
+        } else if (request instanceof SimpleHttpRequest) {
+            SimpleHttpRequest simpleHttpRequest = (SimpleHttpRequest) request;
+            if (simpleHttpRequest.getBody() == null) {
+                return null;
+            }
+            Sha256OutputStream hashingStream = new Sha256OutputStream(signer.digests());
+            hashingStream.write(simpleHttpRequest.getBodyBytes());
+            return hashingStream.sha256();
         }
-        return headersMap;
+
+        throw new IllegalArgumentException("Unsupported request type: " + request.getClass());
     }
 
-    private static boolean skipHeader(Header header) {
-        return (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(header.getName())
-                && "0".equals(header.getValue())) // Strip Content-Length: 0
-                || HttpHeaders.HOST.equalsIgnoreCase(header.getName()); // Host comes from endpoint
+    /**
+     * Returns whether the entity can be read again after being hashed. The client
+     * wraps entities into a proxy that reports itself repeatable until consumed, so
+     * entities backed by a stream are not trusted to be repeatable.
+     *
+     * @param entity entity to check
+     * @return {@code true} if the entity can be read more than once
+     */
+    private static boolean isReplayable(HttpEntity entity) {
+        return entity.isRepeatable() && !entity.isStreaming();
     }
 
-    private static Header[] mapToHeaderArray(Map<String, List<String>> mapHeaders) {
-        Header[] headers = new Header[mapHeaders.size()];
-        int i = 0;
-        for (Map.Entry<String, List<String>> headerEntry : mapHeaders.entrySet()) {
-            for (String value : headerEntry.getValue()) {
-                headers[i++] = new BasicHeader(headerEntry.getKey(), value);
-            }
+    /**
+     * Returns whether the entity already holds its whole content, in memory or
+     * in a file, so it can be read in place for signing.
+     *
+     * @param entity entity to check
+     * @return {@code true} if the content does not have to be buffered
+     */
+    private static boolean holdsContent(HttpEntity entity) {
+        return entity instanceof ByteArrayEntity || entity instanceof StringEntity || entity instanceof FileEntity
+                || entity instanceof PayloadBufferV5Entity;
+    }
+
+    private static void bufferEntity(ClassicHttpRequest request, PayloadBuffer buffer) {
+        // copy back the entity as a repeatable entity, so it can be read again and retried
+        request.setEntity(new PayloadBufferV5Entity(buffer, request.getEntity()));
+    }
+
+    private static URI buildUri(HttpRequest request) throws IOException {
+        try {
+            return request.getUri();
+        } catch (URISyntaxException ex) {
+            throw new IOException("Invalid URI", ex);
         }
-        return headers;
     }
 }
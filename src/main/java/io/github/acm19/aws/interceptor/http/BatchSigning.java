@@ -0,0 +1,145 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Signs batches of requests in parallel, and remembers the requests signed
+ * ahead of time so that the interceptors send them without signing them
+ * again.
+ */
+final class BatchSigning {
+    /**
+     * Requests signed ahead of time and not sent yet, compared by identity,
+     * as requests do not override {@code equals}, and held weakly so that
+     * requests which are never sent are not kept.
+     */
+    private final Set<RequestReference> signedRequests = ConcurrentHashMap.newKeySet();
+    /**
+     * Queue of the references to requests that were never sent and have been
+     * garbage collected.
+     */
+    private final ReferenceQueue<Object> collectedRequests = new ReferenceQueue<>();
+
+    /**
+     * Signs every request on {@code executor} and waits until all of them are
+     * signed. Each signed request is remembered, see {@link #consume(Object)}.
+     *
+     * @param <T>      type of the requests
+     * @param requests requests to sign
+     * @param executor executor signing the requests
+     * @param signer   signs a request
+     * @throws Exception the first failure to sign a request, with the others suppressed
+     */
+    <T> void signAll(Collection<? extends T> requests, Executor executor, Signer<T> signer) throws Exception {
+        List<CompletableFuture<Void>> signatures = new ArrayList<>(requests.size());
+        for (T request : requests) {
+            signatures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    signer.sign(request);
+                } catch (Exception ex) {
+                    throw new CompletionException(ex);
+                }
+                signedRequests.add(new RequestReference(request, collectedRequests));
+            }, executor));
+        }
+
+        Exception failure = null;
+        for (CompletableFuture<Void> signature : signatures) {
+            try {
+                signature.join();
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (failure == null) {
+                    failure = (Exception) cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns whether a request has been signed ahead of time, and forgets
+     * it, so that it is signed again if it is sent once more.
+     *
+     * @param request request about to be sent
+     * @return {@code true} if the request is already signed
+     */
+    boolean consume(Object request) {
+        for (Reference<?> collected = collectedRequests.poll(); collected != null;
+                collected = collectedRequests.poll()) {
+            signedRequests.remove(collected);
+        }
+        return !signedRequests.isEmpty() && signedRequests.remove(new RequestReference(request, null));
+    }
+
+    /**
+     * Weak reference to a request, equal to the references to the same request.
+     * A cleared reference is only equal to itself.
+     */
+    private static final class RequestReference extends WeakReference<Object> {
+        private final int hashCode;
+
+        RequestReference(Object request, ReferenceQueue<Object> queue) {
+            super(request, queue);
+            this.hashCode = System.identityHashCode(request);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof RequestReference)) {
+                return false;
+            }
+            Object request = get();
+            return request != null && request == ((RequestReference) other).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Signs a request.
+     *
+     * @param <T> type of the request
+     */
+    @FunctionalInterface
+    interface Signer<T> {
+        /**
+         * Signs {@code request}.
+         *
+         * @param request request to sign
+         * @throws Exception if the request cannot be signed
+         */
+        void sign(T request) throws Exception;
+    }
+}
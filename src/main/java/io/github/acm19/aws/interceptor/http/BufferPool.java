@@ -0,0 +1,59 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+/**
+ * A per-thread cache of one byte array, reused by the payload buffers that are
+ * only needed while a request is signed. Arrays larger than
+ * {@link #MAX_POOLED_SIZE} are left to the garbage collector, so each thread
+ * holds at most that many bytes.
+ */
+final class BufferPool {
+    /**
+     * Size in bytes of the largest array kept for reuse.
+     */
+    static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> CACHED = new ThreadLocal<>();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Returns an array of at least {@code minCapacity} bytes, reusing the array
+     * cached by the current thread if it is large enough.
+     *
+     * @param minCapacity minimum size of the array
+     * @return an array the caller owns until it is released
+     */
+    static byte[] acquire(int minCapacity) {
+        byte[] cached = CACHED.get();
+        if (cached != null && cached.length >= minCapacity) {
+            CACHED.remove();
+            return cached;
+        }
+        return new byte[minCapacity];
+    }
+
+    /**
+     * Returns an array for reuse by the current thread. The array must no
+     * longer be used by the caller.
+     *
+     * @param array array to return
+     */
+    static void release(byte[] array) {
+        if (array.length > MAX_POOLED_SIZE) {
+            return;
+        }
+        byte[] cached = CACHED.get();
+        if (cached == null || cached.length < array.length) {
+            CACHED.set(array);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+import org.apache.hc.core5.util.Args;
+
+/**
+ * An {@link HttpEntity} that sends the content of another entity as signed
+ * chunks while it is read.
+ */
+final class ChunkSignedV5Entity extends HttpEntityWrapper {
+    private static final int OUTPUT_BUFFER_SIZE = 4096;
+
+    private final HttpEntity wrappedEntity;
+    private final ChunkSigner chunkSigner;
+    private final long contentLength;
+
+    /**
+     * Creates an entity sending {@code wrappedEntity} as signed chunks.
+     *
+     * @param wrappedEntity entity with a known content length
+     * @param chunkSigner   signer of the chunks
+     * @param contentLength length of the encoded content
+     */
+    ChunkSignedV5Entity(HttpEntity wrappedEntity, ChunkSigner chunkSigner, long contentLength) {
+        super(wrappedEntity);
+        this.wrappedEntity = wrappedEntity;
+        this.chunkSigner = chunkSigner;
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return false;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return chunkSigner.sign(wrappedEntity.getContent());
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        Args.notNull(outStream, "Output stream");
+        try (InputStream inStream = getContent()) {
+            byte[] tmp = new byte[OUTPUT_BUFFER_SIZE];
+            int l;
+            while ((l = inStream.read(tmp)) != -1) {
+                outStream.write(tmp, 0, l);
+            }
+            outStream.flush();
+        }
+    }
+}
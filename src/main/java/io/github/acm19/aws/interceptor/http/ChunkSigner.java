@@ -0,0 +1,193 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import javax.crypto.Mac;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.utils.BinaryUtils;
+
+/**
+ * Signs a payload sent as a series of chunks with
+ * <a href="https://docs.aws.amazon.com/AmazonS3/latest/API/sigv4-streaming.html">
+ * {@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD}</a>. Each chunk signature chains
+ * from the previous one, starting at the seed signature of the request headers.
+ */
+final class ChunkSigner {
+    /**
+     * Minimum chunk size accepted by AWS, except for the last chunk.
+     */
+    static final int MIN_CHUNK_SIZE = 8 * 1024;
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256-PAYLOAD";
+    private static final String CHUNK_SIGNATURE = ";chunk-signature=";
+    private static final String CRLF = "\r\n";
+    private static final int HEX_RADIX = 16;
+    private static final int SIGNATURE_HEX_LENGTH = 64;
+
+    private final SdkHttpRequest signedRequest;
+    private final byte[] signingKey;
+    private final String stringToSignPrefix;
+    private final String seedSignature;
+    private final int chunkSize;
+    private final Digests digests;
+
+    /**
+     * Creates a signer for the payload of a request whose headers have been
+     * signed for a chunked payload.
+     *
+     * @param signedRequest request signed with the seed signature
+     * @param signingKey    key the request was signed with
+     * @param amzDate       signing time, as in {@code X-Amz-Date}
+     * @param scope         credential scope of the signature
+     * @param seedSignature signature of the request headers
+     * @param chunkSize     size of the chunks in bytes
+     * @param digests       digests signing the chunks
+     */
+    ChunkSigner(SdkHttpRequest signedRequest,
+                byte[] signingKey,
+                String amzDate,
+                String scope,
+                String seedSignature,
+                int chunkSize,
+                Digests digests) {
+        this.signedRequest = signedRequest;
+        this.signingKey = signingKey.clone();
+        this.stringToSignPrefix = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n";
+        this.seedSignature = seedSignature;
+        this.chunkSize = chunkSize;
+        this.digests = digests;
+    }
+
+    /**
+     * Returns the length of a payload once encoded into signed chunks.
+     *
+     * @param decodedLength length of the payload in bytes
+     * @param chunkSize     size of the chunks in bytes
+     * @return the length of the encoded payload
+     */
+    static long encodedLength(long decodedLength, int chunkSize) {
+        long fullChunks = decodedLength / chunkSize;
+        long lastChunkSize = decodedLength % chunkSize;
+        long length = fullChunks * encodedChunkLength(chunkSize);
+        if (lastChunkSize > 0) {
+            length += encodedChunkLength(lastChunkSize);
+        }
+        return length + encodedChunkLength(0);
+    }
+
+    private static long encodedChunkLength(long dataLength) {
+        return Long.toHexString(dataLength).length() + CHUNK_SIGNATURE.length() + SIGNATURE_HEX_LENGTH
+                + CRLF.length() + dataLength + CRLF.length();
+    }
+
+    /**
+     * Returns the request signed with the seed signature.
+     *
+     * @return the signed request
+     */
+    SdkHttpRequest signedRequest() {
+        return signedRequest;
+    }
+
+    /**
+     * Returns a stream encoding {@code payload} into signed chunks as it is read.
+     * Every stream starts from the seed signature, so the same payload always
+     * encodes to the same bytes.
+     *
+     * @param payload payload to encode
+     * @return the encoded payload
+     */
+    InputStream sign(InputStream payload) {
+        return new ChunkedInputStream(payload);
+    }
+
+    /**
+     * Reads a payload one chunk at a time and returns it framed as
+     * {@code hex(size);chunk-signature=signature\r\ndata\r\n}, followed by an
+     * empty final chunk.
+     */
+    private final class ChunkedInputStream extends InputStream {
+        private final InputStream payload;
+        private final Mac mac = digests.newHmacSha256(signingKey);
+        private final MessageDigest digest = digests.newSha256();
+        private final byte[] data = new byte[chunkSize];
+        private String previousSignature = seedSignature;
+        private byte[] chunk = new byte[0];
+        private int position;
+        private boolean finished;
+
+        ChunkedInputStream(InputStream payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            return Byte.toUnsignedInt(chunk[position++]);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int read = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            payload.close();
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (position < chunk.length) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+
+            int length = 0;
+            int read;
+            while (length < data.length && (read = payload.read(data, length, data.length - length)) != -1) {
+                length += read;
+            }
+            finished = length == 0;
+
+            digest.update(data, 0, length);
+            String stringToSign = stringToSignPrefix + previousSignature + "\n" + Digests.EMPTY_SHA256 + "\n"
+                    + BinaryUtils.toHex(digest.digest());
+            previousSignature = BinaryUtils.toHex(mac.doFinal(stringToSign.getBytes(UTF_8)));
+
+            byte[] header = (Integer.toString(length, HEX_RADIX) + CHUNK_SIGNATURE + previousSignature + CRLF)
+                    .getBytes(US_ASCII);
+            chunk = new byte[header.length + length + CRLF.length()];
+            System.arraycopy(header, 0, chunk, 0, header.length);
+            System.arraycopy(data, 0, chunk, header.length, length);
+            chunk[chunk.length - 2] = '\r';
+            chunk[chunk.length - 1] = '\n';
+            position = 0;
+            return true;
+        }
+    }
+}
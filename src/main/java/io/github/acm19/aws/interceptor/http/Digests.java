@@ -0,0 +1,193 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Supplies the SHA-256 digests and HmacSHA256 MACs of the signing path from
+ * a given JCA provider, or from the most preferred installed provider of each
+ * algorithm, as {@link MessageDigest#getInstance(String)} and
+ * {@link Mac#getInstance(String)} resolve them.
+ *
+ * <p>One-shot hashes and MACs reuse an instance per thread instead of
+ * looking up the provider for each request. Streams, whose hash may be
+ * updated across requests on the same thread, get their own instance,
+ * cloned from a prototype where the provider allows it.</p>
+ */
+final class Digests {
+    /**
+     * Hexadecimal SHA-256 of an empty payload.
+     */
+    static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private static final String MESSAGE_DIGEST = "MessageDigest";
+    private static final String MAC = "Mac";
+    private static final String SHA256 = "SHA-256";
+    private static final String HMAC_SHA256 = "HmacSHA256";
+
+    private final Provider sha256Provider;
+    private final Provider hmacSha256Provider;
+    private final MessageDigest sha256Prototype;
+    private final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(this::newSha256);
+    private final ThreadLocal<Mac> hmacSha256 = ThreadLocal.withInitial(this::newHmacSha256);
+
+    private Digests(Provider sha256Provider, Provider hmacSha256Provider) {
+        this.sha256Provider = sha256Provider;
+        this.hmacSha256Provider = hmacSha256Provider;
+        this.sha256Prototype = getSha256(sha256Provider);
+    }
+
+    /**
+     * Returns the digests of the most preferred installed providers.
+     *
+     * @return the default digests
+     */
+    static Digests defaults() {
+        return Defaults.DIGESTS;
+    }
+
+    /**
+     * Returns the digests of a provider, or the default ones. An algorithm the
+     * provider lacks is taken from the most preferred provider of it.
+     *
+     * @param provider provider of SHA-256, HmacSHA256 or both, see
+     *                 {@link #provides(Provider)}, or {@code null} for the
+     *                 most preferred installed providers
+     * @return the digests of the provider
+     */
+    static Digests of(Provider provider) {
+        if (provider == null) {
+            return defaults();
+        }
+        return new Digests(provider.getService(MESSAGE_DIGEST, SHA256) != null
+                                   ? provider : getSha256(null).getProvider(),
+                           provider.getService(MAC, HMAC_SHA256) != null
+                                   ? provider : getHmacSha256(null).getProvider());
+    }
+
+    /**
+     * Returns whether a provider provides SHA-256 or HmacSHA256.
+     *
+     * @param provider JCA provider
+     * @return {@code true} if the provider provides either algorithm
+     */
+    static boolean provides(Provider provider) {
+        return provider.getService(MESSAGE_DIGEST, SHA256) != null || provider.getService(MAC, HMAC_SHA256) != null;
+    }
+
+    /**
+     * Returns the SHA-256 digest provider.
+     *
+     * @return the provider
+     */
+    Provider sha256Provider() {
+        return sha256Provider;
+    }
+
+    /**
+     * Returns the HmacSHA256 provider.
+     *
+     * @return the provider
+     */
+    Provider hmacSha256Provider() {
+        return hmacSha256Provider;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the current thread, to be used to
+     * completion before the thread hashes anything else.
+     *
+     * @return the reset digest
+     */
+    MessageDigest sha256() {
+        MessageDigest digest = sha256.get();
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * Returns the HmacSHA256 MAC of the current thread initialised with
+     * {@code key}, to be used to completion before the thread computes
+     * another MAC.
+     *
+     * @param key MAC key
+     * @return the initialised MAC
+     */
+    Mac hmacSha256(byte[] key) {
+        return init(hmacSha256.get(), key);
+    }
+
+    /**
+     * Returns a new SHA-256 digest.
+     *
+     * @return the digest
+     */
+    MessageDigest newSha256() {
+        try {
+            return (MessageDigest) sha256Prototype.clone();
+        } catch (CloneNotSupportedException ex) {
+            return getSha256(sha256Provider);
+        }
+    }
+
+    /**
+     * Returns a new HmacSHA256 MAC initialised with {@code key}.
+     *
+     * @param key MAC key
+     * @return the initialised MAC
+     */
+    Mac newHmacSha256(byte[] key) {
+        return init(newHmacSha256(), key);
+    }
+
+    private Mac newHmacSha256() {
+        return getHmacSha256(hmacSha256Provider);
+    }
+
+    private static Mac init(Mac mac, byte[] key) {
+        try {
+            mac.init(new SecretKeySpec(key, HMAC_SHA256));
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Invalid HmacSHA256 key", ex);
+        }
+    }
+
+    private static MessageDigest getSha256(Provider provider) {
+        try {
+            return provider == null ? MessageDigest.getInstance(SHA256) : MessageDigest.getInstance(SHA256, provider);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private static Mac getHmacSha256(Provider provider) {
+        try {
+            return provider == null ? Mac.getInstance(HMAC_SHA256) : Mac.getInstance(HMAC_SHA256, provider);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HmacSHA256 is not available", ex);
+        }
+    }
+
+    /**
+     * Holds the default digests, resolved when first needed.
+     */
+    private static final class Defaults {
+        private static final Digests DIGESTS = new Digests(getSha256(null).getProvider(),
+                                                           getHmacSha256(null).getProvider());
+
+        private Defaults() {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import software.amazon.awssdk.http.ContentStreamProvider;
+
+/**
+ * A {@link ContentStreamProvider} reading the content of an entity that
+ * already holds its payload, such as a byte array or a file, so the signer
+ * reads it in place instead of from a copy. The signer does not close the
+ * streams it reads, so they are closed along with the provider.
+ */
+final class EntityContentProvider implements ContentStreamProvider, Closeable {
+    /**
+     * Opens the content of an entity.
+     */
+    @FunctionalInterface
+    interface Content {
+        /**
+         * Opens a new stream over the content.
+         *
+         * @return the content
+         * @throws IOException if the content cannot be opened
+         */
+        InputStream open() throws IOException;
+    }
+
+    private final Content content;
+    private final List<InputStream> opened = new ArrayList<>(1);
+
+    /**
+     * Creates a provider opening {@code content} every time the signer reads it.
+     *
+     * @param content content of the entity
+     */
+    EntityContentProvider(Content content) {
+        this.content = content;
+    }
+
+    @Override
+    public InputStream newStream() {
+        try {
+            InputStream stream = content.open();
+            opened.add(stream);
+            return stream;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (InputStream stream : opened) {
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        opened.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Consumer;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+
+/**
+ * Reads all the content of an {@link AsyncEntityProducer} into an
+ * {@link OutputStream} without blocking. The producer is asked for content
+ * for as long as it makes progress; once it has nothing to write it is only
+ * asked again when it calls {@link #requestOutput()}, possibly from another
+ * thread, where draining then continues.
+ */
+final class EntityProducerDrain implements DataStreamChannel {
+    private static final int COPY_BUFFER_SIZE = 4096;
+
+    /**
+     * Called once the producer has ended its stream.
+     */
+    @FunctionalInterface
+    interface Completion {
+        /**
+         * Handles the drained content.
+         *
+         * @param trailers trailers the producer ended the stream with, or {@code null}
+         * @throws HttpException if the content cannot be handled
+         * @throws IOException   if the content cannot be handled
+         */
+        void completed(List<? extends Header> trailers) throws HttpException, IOException;
+    }
+
+    private final AsyncEntityProducer producer;
+    private final OutputStream target;
+    private final Completion completion;
+    private final Consumer<Exception> failure;
+    private boolean producing;
+    private boolean outputRequested;
+    private volatile boolean ended;
+    private volatile List<? extends Header> trailers;
+    private long written;
+
+    /**
+     * Creates a drain, {@link #start()} begins reading.
+     *
+     * @param producer   producer to read
+     * @param target     stream receiving the content
+     * @param completion called once all the content has been written to {@code target}
+     * @param failure    called if the content cannot be read or handled
+     */
+    EntityProducerDrain(AsyncEntityProducer producer,
+                        OutputStream target,
+                        Completion completion,
+                        Consumer<Exception> failure) {
+        this.producer = producer;
+        this.target = target;
+        this.completion = completion;
+        this.failure = failure;
+    }
+
+    /**
+     * Starts reading the producer on the calling thread, returning as soon as
+     * it has no content available.
+     */
+    void start() {
+        requestOutput();
+    }
+
+    @Override
+    public void requestOutput() {
+        synchronized (this) {
+            outputRequested = true;
+            if (producing || ended) {
+                return;
+            }
+            producing = true;
+        }
+        drain();
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        if (src.hasArray()) {
+            target.write(src.array(), src.arrayOffset() + src.position(), length);
+            src.position(src.limit());
+        } else {
+            byte[] copy = new byte[Math.min(length, COPY_BUFFER_SIZE)];
+            while (src.hasRemaining()) {
+                int chunk = Math.min(src.remaining(), copy.length);
+                src.get(copy, 0, chunk);
+                target.write(copy, 0, chunk);
+            }
+        }
+        written += length;
+        return length;
+    }
+
+    @Override
+    public void endStream() {
+        endStream(null);
+    }
+
+    @Override
+    public void endStream(List<? extends Header> streamTrailers) {
+        this.trailers = streamTrailers;
+        this.ended = true;
+    }
+
+    private void drain() {
+        try {
+            if (!produce()) {
+                return;
+            }
+            producer.releaseResources();
+        } catch (IOException | RuntimeException ex) {
+            producer.failed(ex);
+            producer.releaseResources();
+            failure.accept(ex);
+            return;
+        }
+
+        try {
+            completion.completed(trailers);
+        } catch (HttpException | IOException | RuntimeException ex) {
+            failure.accept(ex);
+        }
+    }
+
+    /**
+     * Asks the producer for content until it ends the stream or stops making
+     * progress.
+     *
+     * @return {@code true} if the stream has ended
+     * @throws IOException if the producer fails
+     */
+    private boolean produce() throws IOException {
+        while (true) {
+            synchronized (this) {
+                outputRequested = false;
+            }
+            long before = written;
+            producer.produce(this);
+            if (ended) {
+                return true;
+            }
+            synchronized (this) {
+                if (written == before && !outputRequested) {
+                    producing = false;
+                    return false;
+                }
+            }
+        }
+    }
+}
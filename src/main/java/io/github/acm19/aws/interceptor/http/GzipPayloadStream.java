@@ -0,0 +1,91 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An {@link OutputStream} that compresses what is written with gzip, hashing
+ * and buffering the compressed bytes as they are produced, so the payload is
+ * compressed, hashed and buffered in a single pass.
+ */
+final class GzipPayloadStream extends OutputStream {
+    /**
+     * Value of the {@code Content-Encoding} of compressed payloads.
+     */
+    static final String CONTENT_ENCODING = "gzip";
+
+    private static final int DEFLATER_BUFFER_SIZE = 8192;
+
+    private final PayloadBuffer buffer;
+    private final Sha256OutputStream hashingStream;
+    private final GZIPOutputStream gzipStream;
+    private byte[] sha256;
+
+    /**
+     * Creates a stream buffering the compressed payload.
+     *
+     * @param spillThreshold size in bytes above which the compressed payload is written to a temporary file
+     * @param digests        digests hashing the compressed payload
+     * @throws IOException if the gzip header cannot be written
+     */
+    GzipPayloadStream(long spillThreshold, Digests digests) throws IOException {
+        this.buffer = new PayloadBuffer(spillThreshold);
+        this.hashingStream = new Sha256OutputStream(digests, buffer);
+        this.gzipStream = new GZIPOutputStream(hashingStream, DEFLATER_BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        gzipStream.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        gzipStream.write(b, off, len);
+    }
+
+    /**
+     * Writes the gzip trailer and completes the buffer and the hash.
+     *
+     * @throws IOException if the compressed payload cannot be buffered
+     */
+    @Override
+    public void close() throws IOException {
+        if (sha256 != null) {
+            return;
+        }
+        try {
+            gzipStream.close();
+        } finally {
+            buffer.close();
+        }
+        sha256 = hashingStream.sha256();
+    }
+
+    /**
+     * Returns the compressed payload, once this stream is closed.
+     *
+     * @return the compressed payload
+     */
+    PayloadBuffer payload() {
+        return buffer;
+    }
+
+    /**
+     * Returns the SHA-256 of the compressed payload, once this stream is closed.
+     *
+     * @return the SHA-256 of the compressed payload
+     */
+    byte[] sha256() {
+        return sha256.clone();
+    }
+}
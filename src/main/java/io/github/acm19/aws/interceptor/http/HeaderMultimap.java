@@ -0,0 +1,327 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Headers of a request to sign, held in flat arrays sorted once by lowercase
+ * name, and seen as a case-insensitive map from names to all their values.
+ * Repeated headers keep every value, in the order they were added. Headers
+ * are added once by {@link #of}, after which only {@link #set(String, String)}
+ * and {@link #removeAll(String)} change them.
+ */
+final class HeaderMultimap extends AbstractMap<String, List<String>> {
+    private static final String CONTENT_LENGTH = "content-length";
+    private static final String HOST = "host";
+
+    private String[] names;
+    private String[] keys;
+    private String[] values;
+    private int size;
+    private final Set<Map.Entry<String, List<String>>> entries = new Entries();
+
+    private HeaderMultimap(String[] names, String[] keys, String[] values, int size) {
+        this.names = names;
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Returns the headers to sign of a request. {@code Host}, which comes
+     * from the endpoint, and {@code Content-Length: 0} are left out.
+     *
+     * @param <H>     type of the headers
+     * @param headers headers of the request
+     * @param name    returns the name of a header
+     * @param value   returns the value of a header
+     * @return the headers, sorted by lowercase name
+     */
+    static <H> HeaderMultimap of(H[] headers, Function<H, String> name, Function<H, String> value) {
+        return of(headers, name, value, SignedHeaderPolicy.all());
+    }
+
+    /**
+     * Returns the headers of a request signed under {@code policy}.
+     * {@code Host}, which comes from the endpoint, and
+     * {@code Content-Length: 0} are left out.
+     *
+     * @param <H>     type of the headers
+     * @param headers headers of the request
+     * @param name    returns the name of a header
+     * @param value   returns the value of a header
+     * @param policy  policy choosing the headers to sign
+     * @return the headers, sorted by lowercase name
+     */
+    static <H> HeaderMultimap of(H[] headers,
+                                 Function<H, String> name,
+                                 Function<H, String> value,
+                                 SignedHeaderPolicy policy) {
+        int count = headers.length;
+        String[] names = new String[count];
+        String[] keys = new String[count];
+        String[] values = new String[count];
+        int size = 0;
+        for (H header : headers) {
+            String headerName = name.apply(header);
+            String key = headerName.toLowerCase(Locale.ROOT);
+            String headerValue = value.apply(header);
+            if (HOST.equals(key) || CONTENT_LENGTH.equals(key) && "0".equals(headerValue) || !policy.signs(key)) {
+                continue;
+            }
+            names[size] = headerName;
+            keys[size] = key;
+            values[size++] = headerValue;
+        }
+
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        sort(order, new int[size], 0, size, keys);
+
+        String[] sortedNames = new String[size];
+        String[] sortedKeys = new String[size];
+        String[] sortedValues = new String[size];
+        for (int i = 0; i < size; i++) {
+            int index = order[i];
+            sortedKeys[i] = keys[index];
+            sortedValues[i] = values[index];
+            // the name of the first header of a run is the name of all its values
+            sortedNames[i] = i > 0 && sortedKeys[i].equals(sortedKeys[i - 1]) ? sortedNames[i - 1] : names[index];
+        }
+        return new HeaderMultimap(sortedNames, sortedKeys, sortedValues, size);
+    }
+
+    /**
+     * Updates the headers of a request to those of its signed request, only
+     * adding or replacing the headers whose values changed, so that the other
+     * header objects of the request are kept. A {@code Content-Length: 0}
+     * left out by {@link #of} is removed.
+     *
+     * @param <H>     type of the headers
+     * @param signed  headers of the signed request
+     * @param current returns the headers of the request with a name
+     * @param value   returns the value of a header
+     * @param remove  removes the headers of the request with a name
+     * @param add     adds a header to the request
+     */
+    static <H> void update(Map<String, List<String>> signed,
+                           Function<String, H[]> current,
+                           Function<H, String> value,
+                           Consumer<String> remove,
+                           BiConsumer<String, String> add) {
+        for (Map.Entry<String, List<String>> entry : signed.entrySet()) {
+            String name = entry.getKey();
+            List<String> signedValues = entry.getValue();
+            H[] headers = current.apply(name);
+            if (sameValues(headers, value, signedValues)) {
+                continue;
+            }
+            if (headers.length > 0) {
+                remove.accept(name);
+            }
+            for (String signedValue : signedValues) {
+                add.accept(name, signedValue);
+            }
+        }
+        H[] contentLength = current.apply(CONTENT_LENGTH);
+        if (contentLength.length == 1 && "0".equals(value.apply(contentLength[0]))) {
+            remove.accept(CONTENT_LENGTH);
+        }
+    }
+
+    /**
+     * Sets the single value of a header, replacing all its values.
+     *
+     * @param name  header name
+     * @param value header value
+     */
+    void set(String name, String value) {
+        String key = name.toLowerCase(Locale.ROOT);
+        int start = start(key);
+        int end = end(start, key);
+        if (end > start) {
+            names[start] = name;
+            values[start] = value;
+            delete(start + 1, end);
+            return;
+        }
+        if (size == keys.length) {
+            int capacity = size + 2;
+            names = Arrays.copyOf(names, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(names, start, names, start + 1, size - start);
+        System.arraycopy(keys, start, keys, start + 1, size - start);
+        System.arraycopy(values, start, values, start + 1, size - start);
+        names[start] = name;
+        keys[start] = key;
+        values[start] = value;
+        size++;
+    }
+
+    /**
+     * Removes all the values of a header.
+     *
+     * @param name header name
+     */
+    void removeAll(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        int start = start(key);
+        delete(start, end(start, key));
+    }
+
+    @Override
+    public List<String> get(Object name) {
+        if (!(name instanceof String)) {
+            return null;
+        }
+        String key = ((String) name).toLowerCase(Locale.ROOT);
+        int start = start(key);
+        int end = end(start, key);
+        return end > start ? valuesOf(start, end) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return get(name) != null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, List<String>>> entrySet() {
+        return entries;
+    }
+
+    private static <H> boolean sameValues(H[] headers, Function<H, String> value, List<String> values) {
+        if (headers.length != values.size()) {
+            return false;
+        }
+        for (int i = 0; i < headers.length; i++) {
+            if (!values.get(i).equals(value.apply(headers[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<String> valuesOf(int start, int end) {
+        return Collections.unmodifiableList(Arrays.asList(values).subList(start, end));
+    }
+
+    private void delete(int start, int end) {
+        int removed = end - start;
+        if (removed == 0) {
+            return;
+        }
+        System.arraycopy(names, end, names, start, size - end);
+        System.arraycopy(keys, end, keys, start, size - end);
+        System.arraycopy(values, end, values, start, size - end);
+        size -= removed;
+        Arrays.fill(names, size, size + removed, null);
+        Arrays.fill(keys, size, size + removed, null);
+        Arrays.fill(values, size, size + removed, null);
+    }
+
+    // index of the first header whose key is not before key
+    private int start(String key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int end(int start, String key) {
+        int end = start;
+        while (end < size && keys[end].equals(key)) {
+            end++;
+        }
+        return end;
+    }
+
+    // stable merge sort of indexes by key, so that the values of a header keep their order
+    private static void sort(int[] order, int[] scratch, int from, int to, String[] keys) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(order, scratch, from, middle, keys);
+        sort(order, scratch, middle, to, keys);
+        if (keys[order[middle - 1]].compareTo(keys[order[middle]]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle && keys[scratch[left]].compareTo(keys[scratch[right]]) <= 0) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+
+    /**
+     * Entries of the map, one per header name.
+     */
+    private final class Entries extends AbstractSet<Map.Entry<String, List<String>>> {
+        @Override
+        public Iterator<Map.Entry<String, List<String>>> iterator() {
+            return new Iterator<Map.Entry<String, List<String>>>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public Map.Entry<String, List<String>> next() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    int start = next;
+                    next = end(start, keys[start]);
+                    return new SimpleImmutableEntry<>(names[start], valuesOf(start, next));
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int count = 0;
+            for (int i = 0; i < size; i = end(i, keys[i])) {
+                count++;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,975 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static software.amazon.awssdk.http.auth.aws.signer.SignerConstant.STREAMING_SIGNED_PAYLOAD;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import javax.crypto.Mac;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.CredentialUtils;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.auth.aws.signer.RegionSet;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+import software.amazon.awssdk.identity.spi.AwsSessionCredentialsIdentity;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.utils.BinaryUtils;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+/**
+ * Signs requests with
+ * <a href="https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html">
+ * AWS Signature Version 4</a> straight from their method, URI and headers,
+ * without converting them to SDK requests. Only the headers added by the
+ * signature are written back. Signatures are the same as those of
+ * {@link software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner} with its
+ * default properties, which double URL encodes and normalises the path.
+ *
+ * <p>Given a region set, requests are signed with SigV4a instead, the
+ * multi-region variant of SigV4 whose signatures are valid in any region of
+ * the set: the canonical request is the same, with the region set signed in
+ * {@code X-Amz-Region-Set}, the scope leaves the region out, and the string to
+ * sign is signed with an ECDSA P-256 key derived from the credentials.</p>
+ */
+final class NativeV4Signer {
+    /**
+     * Name of the header holding the signature.
+     */
+    static final String AUTHORIZATION = "Authorization";
+    /**
+     * Name of the header holding the host.
+     */
+    static final String HOST = "Host";
+    /**
+     * Name of the header holding the payload hash.
+     */
+    static final String X_AMZ_CONTENT_SHA256 = "x-amz-content-sha256";
+    /**
+     * Name of the header holding the signing time.
+     */
+    static final String X_AMZ_DATE = "X-Amz-Date";
+    /**
+     * Name of the header holding the session token of temporary credentials.
+     */
+    static final String X_AMZ_SECURITY_TOKEN = "X-Amz-Security-Token";
+    /**
+     * Name of the header holding the regions a SigV4a signature is valid in.
+     */
+    static final String X_AMZ_REGION_SET = "X-Amz-Region-Set";
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String V4A_ALGORITHM = "AWS4-ECDSA-P256-SHA256";
+    private static final String TERMINATOR = "aws4_request";
+    private static final String ECDSA_SHA256 = "SHA256withECDSA";
+    private static final int SHA256_LENGTH = 32;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int HEX_DIGIT_BITS = 4;
+    private static final int HEX_DIGIT_MASK = 0xf;
+    private static final int HTTP_PORT = 80;
+    private static final int HTTPS_PORT = 443;
+    private static final char ASCII_LIMIT = 0x80;
+    /**
+     * Number of headers added by the signature.
+     */
+    private static final int SIGNATURE_HEADERS = 5;
+    private static final int INITIAL_COUNT = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Scratch space grown beyond this many characters or bytes by a large
+     * request is not kept for the next one.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+    /**
+     * Headers that are never signed, as they may be changed on the way, and
+     * headers that are replaced by the signature.
+     */
+    private static final Set<String> UNSIGNED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        UNSIGNED_HEADERS.addAll(Arrays.asList(
+                "connection", "x-amzn-trace-id", "user-agent", "expect", "transfer-encoding", "x-forwarded-for",
+                "authorization", "host", "x-amz-content-sha256", "x-amz-date", "x-amz-security-token",
+                "x-amz-region-set"));
+    }
+
+    private final String service;
+    private final Region region;
+    private final AwsCredentialsProvider awsCredentialsProvider;
+    private final SigningClock clock;
+    private final SigningKeyCache signingKeys;
+    private final String regionSet;
+    private final String algorithm;
+    private final SignatureMemo signatures;
+    private final SignedHeaderPolicy signedHeaderPolicy;
+    /**
+     * {@code SignedHeaders} of requests holding every header of an allowlist,
+     * without and with a session token, or {@code null} without an allowlist.
+     */
+    private final String[] allSignedHeaders;
+    /**
+     * Number of headers in {@link #allSignedHeaders}.
+     */
+    private final int[] allSignedHeaderCounts;
+
+    /**
+     * Creates a SigV4 signer for a service in a region.
+     *
+     * @param service                service the client is connecting to
+     * @param region                 signing region
+     * @param awsCredentialsProvider source of AWS credentials for signing
+     * @param clock                  clock giving the signing time
+     * @param signingKeys            cache of the derived signing keys
+     */
+    NativeV4Signer(String service,
+                   Region region,
+                   AwsCredentialsProvider awsCredentialsProvider,
+                   Clock clock,
+                   SigningKeyCache signingKeys) {
+        this(service, region, null, awsCredentialsProvider, clock, signingKeys);
+    }
+
+    /**
+     * Creates a signer for a service in a region, or in a set of regions with
+     * SigV4a.
+     *
+     * @param service                service the client is connecting to
+     * @param region                 signing region, unused with a region set
+     * @param regionSet              regions SigV4a signatures are valid in, or {@code null} for SigV4
+     * @param awsCredentialsProvider source of AWS credentials for signing
+     * @param clock                  clock giving the signing time
+     * @param signingKeys            cache of the derived signing keys
+     */
+    NativeV4Signer(String service,
+                   Region region,
+                   RegionSet regionSet,
+                   AwsCredentialsProvider awsCredentialsProvider,
+                   Clock clock,
+                   SigningKeyCache signingKeys) {
+        this(service, region, regionSet, awsCredentialsProvider, clock, signingKeys, null);
+    }
+
+    /**
+     * Creates a signer for a service in a region, or in a set of regions with
+     * SigV4a, memoizing the signatures of bodiless {@code GET} and
+     * {@code HEAD} requests.
+     *
+     * @param service                service the client is connecting to
+     * @param region                 signing region, unused with a region set
+     * @param regionSet              regions SigV4a signatures are valid in, or {@code null} for SigV4
+     * @param awsCredentialsProvider source of AWS credentials for signing
+     * @param clock                  clock giving the signing time
+     * @param signingKeys            cache of the derived signing keys
+     * @param signatures             memo of the signatures, or {@code null} to sign every request
+     */
+    NativeV4Signer(String service,
+                   Region region,
+                   RegionSet regionSet,
+                   AwsCredentialsProvider awsCredentialsProvider,
+                   Clock clock,
+                   SigningKeyCache signingKeys,
+                   SignatureMemo signatures) {
+        this(service, region, awsCredentialsProvider, signingKeys, signatures,
+             SigningOptions.builder().regionSet(regionSet).signingClock(clock).build());
+    }
+
+    /**
+     * Creates a signer for a service in a region, or in the region set of
+     * {@code options} with SigV4a, memoizing the signatures of bodiless
+     * {@code GET} and {@code HEAD} requests and only signing the headers
+     * chosen by the signed header policy of {@code options}.
+     *
+     * @param service                service the client is connecting to
+     * @param region                 signing region, unused with a region set
+     * @param awsCredentialsProvider source of AWS credentials for signing
+     * @param signingKeys            cache of the derived signing keys
+     * @param signatures             memo of the signatures, or {@code null} to sign every request
+     * @param options                options giving the region set, signing clock and signed header policy
+     */
+    NativeV4Signer(String service,
+                   Region region,
+                   AwsCredentialsProvider awsCredentialsProvider,
+                   SigningKeyCache signingKeys,
+                   SignatureMemo signatures,
+                   SigningOptions options) {
+        RegionSet regionSet = options.regionSet();
+        SignedHeaderPolicy signedHeaderPolicy = options.signedHeaderPolicy();
+        this.service = service;
+        this.region = region;
+        this.regionSet = regionSet == null ? null : regionSet.asString();
+        this.algorithm = regionSet == null ? ALGORITHM : V4A_ALGORITHM;
+        this.awsCredentialsProvider = awsCredentialsProvider;
+        this.clock = new SigningClock(options.signingClock(), regionSet == null
+                ? region.id() + "/" + service + "/" + TERMINATOR
+                // SigV4a scopes leave the region out, as it is in the region set
+                : service + "/" + TERMINATOR);
+        this.signingKeys = signingKeys;
+        this.signatures = signatures;
+        this.signedHeaderPolicy = signedHeaderPolicy;
+        String[] allowed = signedHeaderPolicy.allowed();
+        if (allowed == null) {
+            this.allSignedHeaders = null;
+            this.allSignedHeaderCounts = null;
+        } else {
+            Set<String> names = new TreeSet<>(Arrays.asList(allowed));
+            names.removeAll(UNSIGNED_HEADERS);
+            names.addAll(Arrays.asList("host", "x-amz-content-sha256", "x-amz-date"));
+            if (regionSet != null) {
+                names.add("x-amz-region-set");
+            }
+            String withoutToken = String.join(";", names);
+            int countWithoutToken = names.size();
+            names.add("x-amz-security-token");
+            this.allSignedHeaders = new String[] {withoutToken, String.join(";", names)};
+            this.allSignedHeaderCounts = new int[] {countWithoutToken, names.size()};
+        }
+    }
+
+    /**
+     * Returns the value of {@code x-amz-content-sha256} for a payload hash.
+     *
+     * @param payloadSha256 SHA-256 of the payload, or {@code null} if there is no payload
+     * @return the hexadecimal payload hash
+     */
+    static String contentSha256(byte[] payloadSha256) {
+        return payloadSha256 == null ? Digests.EMPTY_SHA256 : BinaryUtils.toHex(payloadSha256);
+    }
+
+    /**
+     * Signs a request and writes the signature headers to it. {@code Host} is
+     * taken from {@code uri}, and a {@code Content-Length} of {@code 0} is not
+     * signed. Requests are left unsigned with anonymous credentials.
+     *
+     * @param <H>           type of the request headers
+     * @param method        request method
+     * @param uri           request URI, including the host
+     * @param headers       request headers
+     * @param name          returns the name of a header
+     * @param value         returns the value of a header
+     * @param contentSha256 value of {@code x-amz-content-sha256}
+     * @param setHeader     sets a header of the request, replacing any header of the same name
+     */
+    <H> void sign(String method,
+                  URI uri,
+                  H[] headers,
+                  Function<H, String> name,
+                  Function<H, String> value,
+                  String contentSha256,
+                  BiConsumer<String, String> setHeader) {
+        AwsCredentialsIdentity credentials = awsCredentialsProvider.resolveCredentials();
+        if (CredentialUtils.isAnonymous(credentials)) {
+            setHeader.accept(X_AMZ_CONTENT_SHA256, contentSha256);
+            return;
+        }
+
+        Scratch scratch = SCRATCH.get();
+        try {
+            int count = scratch.collectHeaders(headers, name, value, signedHeaderPolicy);
+            sign(credentials, scratch, count, method, uri, contentSha256, setHeader);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Signs the headers of an SDK request for a payload sent as
+     * {@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD} chunks, and returns the signer
+     * of the chunks, which chain from the signature of the headers. Only
+     * applies to SigV4.
+     *
+     * @param request   request to sign, with the encoded {@code Content-Length}
+     *                  and the {@code x-amz-decoded-content-length}
+     * @param chunkSize size of the payload chunks in bytes
+     * @return signer of the payload chunks, holding the signed request
+     * @throws IllegalStateException if the credentials are anonymous
+     */
+    ChunkSigner signChunked(SdkHttpFullRequest request, int chunkSize) {
+        AwsCredentialsIdentity credentials = awsCredentialsProvider.resolveCredentials();
+        if (CredentialUtils.isAnonymous(credentials)) {
+            throw new IllegalStateException("Chunked payloads cannot be signed with anonymous credentials");
+        }
+
+        SdkHttpFullRequest.Builder signedRequest = request.toBuilder();
+        String[][] headers = headers(request.headers());
+        Scratch scratch = SCRATCH.get();
+        try {
+            int count = scratch.collectHeaders(headers, header -> header[0], header -> header[1], signedHeaderPolicy);
+            SigningClock.Tick now = sign(credentials, scratch, count, request.method().name(), request.getUri(),
+                                         STREAMING_SIGNED_PAYLOAD, signedRequest::putHeader);
+            String authorization = signedRequest.firstMatchingHeader(AUTHORIZATION).orElse("");
+            return new ChunkSigner(signedRequest.build(),
+                                   signingKeys.signingKey(credentials, now.date(), region.id(), service),
+                                   now.amzDate(),
+                                   now.scope(),
+                                   authorization.substring(authorization.lastIndexOf('=') + 1),
+                                   chunkSize,
+                                   signingKeys.digests());
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Returns the headers of an SDK request as name and value pairs, as taken
+     * by {@link #sign(String, URI, Object[], Function, Function, String, BiConsumer)}.
+     *
+     * @param headers headers of the request
+     * @return one pair per header value
+     */
+    static String[][] headers(Map<String, List<String>> headers) {
+        int count = 0;
+        for (List<String> values : headers.values()) {
+            count += values.size();
+        }
+        String[][] pairs = new String[count][];
+        int i = 0;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                pairs[i++] = new String[] {header.getKey(), value};
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Signs a request whose headers have been collected into {@code scratch}
+     * and writes the signature headers to it.
+     *
+     * @param credentials   credentials to sign with
+     * @param scratch       scratch space holding the request headers
+     * @param count         number of headers held by {@code scratch}
+     * @param method        request method
+     * @param uri           request URI, including the host
+     * @param contentSha256 value of {@code x-amz-content-sha256}
+     * @param setHeader     sets a header of the request, replacing any header of the same name
+     * @return the signing time
+     */
+    private SigningClock.Tick sign(AwsCredentialsIdentity credentials,
+                                   Scratch scratch,
+                                   int count,
+                                   String method,
+                                   URI uri,
+                                   String contentSha256,
+                                   BiConsumer<String, String> setHeader) {
+        SigningClock.Tick now = clock.tick();
+        String amzDate = now.amzDate();
+        String host = host(uri);
+        String sessionToken = credentials instanceof AwsSessionCredentialsIdentity
+                ? ((AwsSessionCredentialsIdentity) credentials).sessionToken()
+                : null;
+
+        count = scratch.addHeader(count, "host", host);
+        count = scratch.addHeader(count, "x-amz-content-sha256", contentSha256);
+        count = scratch.addHeader(count, "x-amz-date", amzDate);
+        if (regionSet != null) {
+            count = scratch.addHeader(count, "x-amz-region-set", regionSet);
+        }
+        if (sessionToken != null) {
+            count = scratch.addHeader(count, "x-amz-security-token", sessionToken);
+        }
+
+        StringBuilder canonicalRequest = scratch.canonicalRequest.append(method).append('\n');
+        appendCanonicalPath(canonicalRequest, uri).append('\n');
+        appendCanonicalQuery(canonicalRequest, uri, scratch).append('\n');
+        if (allSignedHeaders == null) {
+            scratch.appendCanonicalHeaders(count, null, 0);
+        } else {
+            int variant = sessionToken == null ? 0 : 1;
+            scratch.appendCanonicalHeaders(count, allSignedHeaders[variant], allSignedHeaderCounts[variant]);
+        }
+        canonicalRequest.append('\n')
+                .append(scratch.signedHeaders).append('\n')
+                .append(contentSha256);
+
+        String memoKey = null;
+        String authorization = null;
+        if (signatures != null && Digests.EMPTY_SHA256.equals(contentSha256)
+                && ("GET".equals(method) || "HEAD".equals(method))) {
+            int length = canonicalRequest.length();
+            memoKey = canonicalRequest.append('\n').append(credentials.accessKeyId()).toString();
+            canonicalRequest.setLength(length);
+            authorization = signatures.get(memoKey, credentials.secretAccessKey());
+        }
+        if (authorization == null) {
+            authorization = authorization(credentials, now, scratch);
+            if (memoKey != null) {
+                signatures.put(memoKey, amzDate, credentials.secretAccessKey(), authorization);
+            }
+        }
+
+        setHeader.accept(HOST, host);
+        setHeader.accept(X_AMZ_CONTENT_SHA256, contentSha256);
+        setHeader.accept(X_AMZ_DATE, amzDate);
+        if (regionSet != null) {
+            setHeader.accept(X_AMZ_REGION_SET, regionSet);
+        }
+        if (sessionToken != null) {
+            setHeader.accept(X_AMZ_SECURITY_TOKEN, sessionToken.trim());
+        }
+        setHeader.accept(AUTHORIZATION, authorization);
+        return now;
+    }
+
+    /**
+     * Signs the canonical request held by {@code scratch}.
+     *
+     * @param credentials credentials to sign with
+     * @param now         signing time
+     * @param scratch     scratch space holding the canonical request and signed headers
+     * @return the {@code Authorization} header
+     */
+    private String authorization(AwsCredentialsIdentity credentials, SigningClock.Tick now, Scratch scratch) {
+        StringBuilder canonicalRequest = scratch.canonicalRequest;
+        StringBuilder stringToSign = scratch.stringToSign.append(algorithm).append('\n')
+                .append(now.amzDate()).append('\n')
+                .append(now.scope()).append('\n');
+        appendHex(stringToSign, scratch.sha256(signingKeys.digests(), canonicalRequest));
+
+        byte[] signature = regionSet == null
+                ? scratch.hmacSha256(signingKeys.digests(),
+                                     signingKeys.signingKey(credentials, now.date(), region.id(), service),
+                                     stringToSign)
+                : scratch.ecdsaSha256(signingKeys.ecdsaKey(credentials), stringToSign);
+
+        // the canonical request is no longer needed, so its space holds the authorization
+        StringBuilder authorization = canonicalRequest;
+        authorization.setLength(0);
+        authorization.append(algorithm).append(" Credential=").append(credentials.accessKeyId()).append('/')
+                .append(now.scope())
+                .append(", SignedHeaders=").append(scratch.signedHeaders)
+                .append(", Signature=");
+        appendHex(authorization, signature);
+        return authorization.toString();
+    }
+
+    private static String host(URI uri) {
+        int port = uri.getPort();
+        if (port == -1
+                || port == HTTP_PORT && "http".equalsIgnoreCase(uri.getScheme())
+                || port == HTTPS_PORT && "https".equalsIgnoreCase(uri.getScheme())) {
+            return uri.getHost();
+        }
+        return uri.getHost() + ":" + port;
+    }
+
+    /**
+     * Appends the canonical path of {@code uri}. Paths already in canonical
+     * form, which is most of them, are appended as they are.
+     *
+     * @param builder builder to append to
+     * @param uri     request URI
+     * @return {@code builder}
+     */
+    private static StringBuilder appendCanonicalPath(StringBuilder builder, URI uri) {
+        String path = uri.getRawPath();
+        if (path == null || path.isEmpty()) {
+            return builder.append('/');
+        }
+        if (isCanonicalPath(path)) {
+            return builder.append(path);
+        }
+        return builder.append(canonicalPath(uri));
+    }
+
+    /**
+     * Returns whether a path is left untouched by normalisation and encoding:
+     * it is absolute, only holds unreserved characters, and has no empty,
+     * {@code .} or {@code ..} segments before its end.
+     *
+     * @param path raw path
+     * @return {@code true} if the path is its own canonical form
+     */
+    private static boolean isCanonicalPath(String path) {
+        if (path.charAt(0) != '/') {
+            return false;
+        }
+        int segmentStart = 1;
+        for (int i = 1; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == '/') {
+                int segmentLength = i - segmentStart;
+                if (segmentLength == 0 && i < path.length()
+                        || segmentLength == 1 && path.charAt(segmentStart) == '.'
+                        || segmentLength == 2 && path.startsWith("..", segmentStart)) {
+                    return false;
+                }
+                segmentStart = i + 1;
+            } else if (!isUnreserved(path.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String canonicalPath(URI uri) {
+        String path = SdkHttpUtils.urlEncodeIgnoreSlashes(uri.normalize().getRawPath());
+        if (!path.startsWith("/")) {
+            // matches the SDK, which appends rather than prepends the slash
+            path = path + "/";
+        }
+        if (path.length() > 1 && !uri.getPath().endsWith("/") && path.charAt(path.length() - 1) == '/') {
+            // normalisation may leave a trailing slash the original path does not have
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /**
+     * Appends the canonical query of {@code uri}. Queries that only hold
+     * unreserved characters, which need no decoding or encoding, are sorted
+     * in place.
+     *
+     * @param builder builder to append to
+     * @param uri     request URI
+     * @param scratch space for sorting the parameters
+     * @return {@code builder}
+     */
+    private static StringBuilder appendCanonicalQuery(StringBuilder builder, URI uri, Scratch scratch) {
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return builder;
+        }
+        int count = scratch.collectParameters(query);
+        if (count < 0) {
+            return appendEncodedQuery(builder, uri);
+        }
+        boolean first = true;
+        for (int i = 0; i < count; i++) {
+            int parameter = scratch.order[i];
+            int start = scratch.parameterStarts[parameter];
+            int separator = scratch.parameterSeparators[parameter];
+            if (separator == start) {
+                // parameters without a name are not signed
+                continue;
+            }
+            if (!first) {
+                builder.append('&');
+            }
+            builder.append(query, start, separator).append('=')
+                    .append(query, scratch.valueStart(parameter), scratch.parameterEnds[parameter]);
+            first = false;
+        }
+        return builder;
+    }
+
+    private static StringBuilder appendEncodedQuery(StringBuilder builder, URI uri) {
+        Map<String, List<String>> parameters = new TreeMap<>();
+        for (Map.Entry<String, List<String>> parameter : SdkHttpUtils.uriParams(uri).entrySet()) {
+            if (parameter.getKey() == null || parameter.getKey().isEmpty()) {
+                continue;
+            }
+            List<String> values = new ArrayList<>(parameter.getValue().size());
+            for (String parameterValue : parameter.getValue()) {
+                values.add(parameterValue == null ? "" : SdkHttpUtils.urlEncode(parameterValue));
+            }
+            Collections.sort(values);
+            parameters.put(SdkHttpUtils.urlEncode(parameter.getKey()), values);
+        }
+        boolean first = true;
+        for (Map.Entry<String, List<String>> parameter : parameters.entrySet()) {
+            for (String parameterValue : parameter.getValue()) {
+                if (!first) {
+                    builder.append('&');
+                }
+                builder.append(parameter.getKey()).append('=').append(parameterValue);
+                first = false;
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Appends a header value with its leading and trailing whitespace removed
+     * and its inner whitespace runs replaced by a single space.
+     *
+     * @param builder builder to append to
+     * @param value   header value
+     * @return {@code builder}
+     */
+    private static StringBuilder appendTrimmed(StringBuilder builder, String value) {
+        boolean pendingSpace = false;
+        boolean started = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isWhitespace(c)) {
+                pendingSpace = started;
+            } else {
+                if (pendingSpace) {
+                    builder.append(' ');
+                    pendingSpace = false;
+                }
+                builder.append(c);
+                started = true;
+            }
+        }
+        return builder;
+    }
+
+    private static StringBuilder appendLowerCase(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            builder.append(Character.toLowerCase(value.charAt(i)));
+        }
+        return builder;
+    }
+
+    private static StringBuilder appendHex(StringBuilder builder, byte[] bytes) {
+        for (byte b : bytes) {
+            builder.append(HEX_DIGITS[b >> HEX_DIGIT_BITS & HEX_DIGIT_MASK])
+                    .append(HEX_DIGITS[b & HEX_DIGIT_MASK]);
+        }
+        return builder;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c >= '\t' && c <= '\r';
+    }
+
+    private static boolean isUnreserved(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                || c == '-' || c == '_' || c == '.' || c == '~';
+    }
+
+    private static int compareRegions(String string, int start, int end, int otherStart, int otherEnd) {
+        int length = Math.min(end - start, otherEnd - otherStart);
+        for (int i = 0; i < length; i++) {
+            int difference = string.charAt(start + i) - string.charAt(otherStart + i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return (end - start) - (otherEnd - otherStart);
+    }
+
+    /**
+     * Space reused by the signatures computed on a thread: the canonical
+     * request, string to sign and their encoding are written to it instead of
+     * to new strings, and headers and query parameters are sorted in it.
+     */
+    private static final class Scratch {
+        private final StringBuilder canonicalRequest = new StringBuilder(INITIAL_CAPACITY);
+        private final StringBuilder stringToSign = new StringBuilder(INITIAL_CAPACITY);
+        private final StringBuilder signedHeaders = new StringBuilder(INITIAL_CAPACITY);
+        private final byte[] hash = new byte[SHA256_LENGTH];
+        private final CharsetEncoder utf8 = UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private byte[] bytes = new byte[INITIAL_CAPACITY];
+        private String[] names = new String[INITIAL_COUNT];
+        private String[] values = new String[INITIAL_COUNT];
+        private int[] parameterStarts = new int[INITIAL_COUNT];
+        private int[] parameterSeparators = new int[INITIAL_COUNT];
+        private int[] parameterEnds = new int[INITIAL_COUNT];
+        private int[] order = new int[INITIAL_COUNT];
+
+        /**
+         * Keeps the headers to sign, in no particular order.
+         *
+         * @param <H>     type of the request headers
+         * @param headers request headers
+         * @param name    returns the name of a header
+         * @param value   returns the value of a header
+         * @param policy  policy choosing the headers to sign
+         * @return the number of headers kept
+         */
+        <H> int collectHeaders(H[] headers,
+                               Function<H, String> name,
+                               Function<H, String> value,
+                               SignedHeaderPolicy policy) {
+            int capacity = headers.length + SIGNATURE_HEADERS;
+            if (names.length < capacity) {
+                names = new String[capacity];
+                values = new String[capacity];
+            }
+            int count = 0;
+            for (H header : headers) {
+                String headerName = name.apply(header);
+                String headerValue = value.apply(header);
+                if (UNSIGNED_HEADERS.contains(headerName)
+                        || !policy.signs(headerName)
+                        || "content-length".equalsIgnoreCase(headerName) && "0".equals(headerValue)) {
+                    continue;
+                }
+                count = addHeader(count, headerName, headerValue);
+            }
+            return count;
+        }
+
+        int addHeader(int count, String headerName, String headerValue) {
+            names[count] = headerName;
+            values[count] = headerValue;
+            return count + 1;
+        }
+
+        /**
+         * Appends the kept headers to the canonical request, sorted by name and
+         * with the values of headers of the same name joined, and their names
+         * to the signed headers. The signed headers computed ahead of time for
+         * an allowlist are used when the request holds all of them.
+         *
+         * @param count             number of headers kept
+         * @param allSignedHeaders  signed headers of a request holding every
+         *                          allowed header, or {@code null}
+         * @param allSignedCount    number of headers in {@code allSignedHeaders}
+         * @return the canonical request
+         */
+        StringBuilder appendCanonicalHeaders(int count, String allSignedHeaders, int allSignedCount) {
+            sortOrder(count);
+            // insertion sort, which is stable so headers of the same name keep their order
+            for (int i = 1; i < count; i++) {
+                int header = order[i];
+                int j = i - 1;
+                for (; j >= 0 && String.CASE_INSENSITIVE_ORDER.compare(names[order[j]], names[header]) > 0; j--) {
+                    order[j + 1] = order[j];
+                }
+                order[j + 1] = header;
+            }
+            boolean precomputed = allSignedHeaders != null;
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                int header = order[i];
+                if (i > 0 && names[order[i - 1]].equalsIgnoreCase(names[header])) {
+                    appendTrimmed(canonicalRequest.append(','), values[header]);
+                    continue;
+                }
+                if (i > 0) {
+                    canonicalRequest.append('\n');
+                    if (!precomputed) {
+                        signedHeaders.append(';');
+                    }
+                }
+                appendLowerCase(canonicalRequest, names[header]).append(':');
+                appendTrimmed(canonicalRequest, values[header]);
+                if (!precomputed) {
+                    appendLowerCase(signedHeaders, names[header]);
+                }
+                distinct++;
+            }
+            if (precomputed) {
+                if (distinct == allSignedCount) {
+                    // every allowed header is present, and only allowed headers were kept
+                    signedHeaders.append(allSignedHeaders);
+                } else {
+                    appendSignedHeaders(count);
+                }
+            }
+            return canonicalRequest.append('\n');
+        }
+
+        private void appendSignedHeaders(int count) {
+            for (int i = 0; i < count; i++) {
+                int header = order[i];
+                if (i > 0 && names[order[i - 1]].equalsIgnoreCase(names[header])) {
+                    continue;
+                }
+                if (i > 0) {
+                    signedHeaders.append(';');
+                }
+                appendLowerCase(signedHeaders, names[header]);
+            }
+        }
+
+        /**
+         * Splits a query into its parameters, sorted by name and value, unless
+         * it holds characters that need decoding or encoding.
+         *
+         * @param query raw query
+         * @return the number of parameters, or {@code -1} if the query needs encoding
+         */
+        int collectParameters(String query) {
+            int count = 1;
+            for (int i = 0; i < query.length(); i++) {
+                if (query.charAt(i) == '&') {
+                    count++;
+                }
+            }
+            if (parameterStarts.length < count) {
+                parameterStarts = new int[count];
+                parameterSeparators = new int[count];
+                parameterEnds = new int[count];
+            }
+            int parameter = 0;
+            int start = 0;
+            int separator = -1;
+            for (int i = 0; i <= query.length(); i++) {
+                char c = i < query.length() ? query.charAt(i) : '&';
+                if (c == '&') {
+                    parameterStarts[parameter] = start;
+                    parameterSeparators[parameter] = separator < 0 ? i : separator;
+                    parameterEnds[parameter++] = i;
+                    start = i + 1;
+                    separator = -1;
+                } else if (c == '=' && separator < 0) {
+                    separator = i;
+                } else if (!isUnreserved(c)) {
+                    return -1;
+                }
+            }
+
+            sortOrder(count);
+            for (int i = 1; i < count; i++) {
+                int current = order[i];
+                int j = i - 1;
+                for (; j >= 0 && compareParameters(query, order[j], current) > 0; j--) {
+                    order[j + 1] = order[j];
+                }
+                order[j + 1] = current;
+            }
+            return count;
+        }
+
+        private int compareParameters(String query, int parameter, int other) {
+            int difference = compareRegions(query, parameterStarts[parameter], parameterSeparators[parameter],
+                                            parameterStarts[other], parameterSeparators[other]);
+            if (difference != 0) {
+                return difference;
+            }
+            return compareRegions(query, valueStart(parameter), parameterEnds[parameter],
+                                  valueStart(other), parameterEnds[other]);
+        }
+
+        int valueStart(int parameter) {
+            return Math.min(parameterSeparators[parameter] + 1, parameterEnds[parameter]);
+        }
+
+        private void sortOrder(int count) {
+            if (order.length < count) {
+                order = new int[count];
+            }
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+        }
+
+        /**
+         * Returns the SHA-256 of text encoded as UTF-8.
+         *
+         * @param digests digests of the signer
+         * @param text    text to hash
+         * @return the hash, valid until the next use of this scratch space
+         */
+        byte[] sha256(Digests digests, CharSequence text) {
+            int length = encode(text);
+            MessageDigest digest = digests.sha256();
+            digest.update(bytes, 0, length);
+            try {
+                digest.digest(hash, 0, SHA256_LENGTH);
+            } catch (DigestException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return hash;
+        }
+
+        /**
+         * Returns the HMAC-SHA256 of text encoded as UTF-8.
+         *
+         * @param digests digests of the signer
+         * @param key     HMAC key
+         * @param text    text to authenticate
+         * @return the HMAC, valid until the next use of this scratch space
+         */
+        byte[] hmacSha256(Digests digests, byte[] key, CharSequence text) {
+            try {
+                int length = encode(text);
+                Mac mac = digests.hmacSha256(key);
+                mac.update(bytes, 0, length);
+                mac.doFinal(hash, 0);
+                return hash;
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Returns the DER encoded ECDSA signature of the SHA-256 of text
+         * encoded as UTF-8.
+         *
+         * @param key  ECDSA P-256 private key
+         * @param text text to sign
+         * @return the signature
+         */
+        byte[] ecdsaSha256(PrivateKey key, CharSequence text) {
+            try {
+                int length = encode(text);
+                Signature signature = Signature.getInstance(ECDSA_SHA256);
+                signature.initSign(key);
+                signature.update(bytes, 0, length);
+                return signature.sign();
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException("SHA256withECDSA is not available", ex);
+            }
+        }
+
+        /**
+         * Encodes text as UTF-8 into {@link #bytes}. ASCII text, which is most
+         * of it, is copied as is.
+         *
+         * @param text text to encode
+         * @return the number of bytes written
+         */
+        private int encode(CharSequence text) {
+            int maxLength = (int) (text.length() * (double) utf8.maxBytesPerChar());
+            if (bytes.length < maxLength) {
+                bytes = new byte[maxLength];
+            }
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c >= ASCII_LIMIT) {
+                    ByteBuffer target = ByteBuffer.wrap(bytes, i, bytes.length - i);
+                    utf8.reset().encode(CharBuffer.wrap(text, i, text.length()), target, true);
+                    utf8.flush(target);
+                    return target.position();
+                }
+                bytes[i] = (byte) c;
+            }
+            return text.length();
+        }
+
+        /**
+         * Clears the scratch space after a signature, dropping references to
+         * the request and buffers grown by an unusually large one.
+         */
+        void release() {
+            Arrays.fill(names, null);
+            Arrays.fill(values, null);
+            release(canonicalRequest);
+            release(stringToSign);
+            release(signedHeaders);
+            if (bytes.length > MAX_RETAINED_CAPACITY) {
+                bytes = new byte[INITIAL_CAPACITY];
+            }
+        }
+
+        private static void release(StringBuilder builder) {
+            builder.setLength(0);
+            if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+                builder.trimToSize();
+            }
+        }
+    }
+}
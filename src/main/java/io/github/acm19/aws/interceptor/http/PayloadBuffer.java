@@ -0,0 +1,391 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A write-once buffer for request payloads that keeps small payloads on the
+ * heap and spills payloads larger than a threshold to a temporary file. Once
+ * closed, the buffer can be read any number of times through views that share
+ * its content, so a payload is never copied again after it has been written.
+ *
+ * <p>A spilled payload is memory-mapped when the buffer is closed and the
+ * temporary file is deleted right away, so no file is left behind when the
+ * buffer is no longer referenced.
+ *
+ * <p>The heap buffer is sized from the expected payload size when it is known,
+ * up to {@link BufferPool#MAX_POOLED_SIZE}, and grows as larger payloads are
+ * written, so that a large {@code Content-Length} is not allocated up front.
+ * Buffers that are only read while a request is signed can take their array
+ * from the {@link BufferPool} and give it back with {@link #release()}.
+ */
+final class PayloadBuffer extends OutputStream {
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+    private static final int OUTPUT_BUFFER_SIZE = 4096;
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private final long spillThreshold;
+    private final boolean pooled;
+    private MemoryOutputStream memory;
+    private Path file;
+    private OutputStream fileStream;
+    private ByteBuffer[] segments;
+    private long size;
+    private boolean closed;
+    private boolean released;
+
+    /**
+     * Creates a buffer.
+     *
+     * @param spillThreshold payload size in bytes above which the payload is
+     *                       written to a temporary file
+     */
+    PayloadBuffer(long spillThreshold) {
+        this(spillThreshold, -1);
+    }
+
+    /**
+     * Creates a buffer sized for a payload of {@code sizeHint} bytes.
+     *
+     * @param spillThreshold payload size in bytes above which the payload is
+     *                       written to a temporary file
+     * @param sizeHint       expected payload size in bytes, or a negative value
+     *                       if unknown
+     */
+    PayloadBuffer(long spillThreshold, long sizeHint) {
+        this(spillThreshold, sizeHint, false);
+    }
+
+    private PayloadBuffer(long spillThreshold, long sizeHint, boolean pooled) {
+        this.spillThreshold = spillThreshold;
+        this.pooled = pooled;
+        int capacity = initialCapacity(spillThreshold, sizeHint);
+        this.memory = new MemoryOutputStream(pooled ? BufferPool.acquire(capacity) : new byte[capacity]);
+    }
+
+    /**
+     * Creates a buffer sized for a payload of {@code sizeHint} bytes whose heap
+     * array comes from the {@link BufferPool}. The buffer must be released once
+     * read, and must not be referenced by anything that outlives the signing of
+     * the request.
+     *
+     * @param spillThreshold payload size in bytes above which the payload is
+     *                       written to a temporary file
+     * @param sizeHint       expected payload size in bytes, or a negative value
+     *                       if unknown
+     * @return a new buffer
+     */
+    static PayloadBuffer pooled(long spillThreshold, long sizeHint) {
+        return new PayloadBuffer(spillThreshold, sizeHint, true);
+    }
+
+    /**
+     * Creates a closed buffer over {@code payload}, which is not copied.
+     *
+     * @param payload payload to read
+     * @return a new buffer
+     */
+    static PayloadBuffer wrap(byte[] payload) {
+        PayloadBuffer buffer = new PayloadBuffer(Long.MAX_VALUE, 0);
+        buffer.memory = null;
+        buffer.segments = new ByteBuffer[] {ByteBuffer.wrap(payload)};
+        buffer.size = payload.length;
+        buffer.closed = true;
+        return buffer;
+    }
+
+    /**
+     * Returns the size of the first heap array of a buffer.
+     *
+     * @param spillThreshold payload size in bytes above which the payload is
+     *                       written to a temporary file
+     * @param sizeHint       expected payload size in bytes, or a negative value
+     *                       if unknown
+     * @return the initial capacity in bytes
+     */
+    static int initialCapacity(long spillThreshold, long sizeHint) {
+        if (sizeHint < 0) {
+            return DEFAULT_CAPACITY;
+        }
+        // a payload above the threshold is written to a file, and only the threshold is kept in memory
+        return (int) Math.min(Math.min(sizeHint, spillThreshold), BufferPool.MAX_POOLED_SIZE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(1);
+        target().write(b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(len);
+        target().write(b, off, len);
+        size += len;
+    }
+
+    /**
+     * Completes writing, the buffer can be read afterwards.
+     *
+     * @throws IOException if the spilled payload cannot be mapped
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (fileStream == null) {
+            segments = new ByteBuffer[] {memory.view()};
+            return;
+        }
+        try {
+            fileStream.close();
+            segments = map(file, size);
+        } finally {
+            delete(file);
+        }
+    }
+
+    /**
+     * Returns the number of bytes written.
+     *
+     * @return the payload size
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the payload was written to a temporary file.
+     *
+     * @return {@code true} if the payload spilled to disk
+     */
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Returns a new stream over the payload.
+     *
+     * @return a stream reading the payload from the beginning
+     */
+    InputStream newInputStream() {
+        return new ByteBuffersInputStream(views());
+    }
+
+    /**
+     * Returns read-only views of the payload, in order. Each call returns new
+     * views positioned at the beginning of their segment.
+     *
+     * @return the payload segments
+     */
+    ByteBuffer[] views() {
+        checkClosed();
+        ByteBuffer[] views = new ByteBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            views[i] = segments[i].asReadOnlyBuffer();
+        }
+        return views;
+    }
+
+    /**
+     * Writes the payload to {@code out}. Payloads kept on the heap are written
+     * straight from the buffer.
+     *
+     * @param out stream to write to
+     * @throws IOException if the payload cannot be written
+     */
+    void writeTo(OutputStream out) throws IOException {
+        checkClosed();
+        byte[] tmp = null;
+        for (ByteBuffer segment : segments) {
+            if (segment.hasArray()) {
+                out.write(segment.array(), segment.arrayOffset(), segment.remaining());
+                continue;
+            }
+            ByteBuffer source = segment.duplicate();
+            if (tmp == null) {
+                tmp = new byte[OUTPUT_BUFFER_SIZE];
+            }
+            while (source.hasRemaining()) {
+                int length = Math.min(source.remaining(), tmp.length);
+                source.get(tmp, 0, length);
+                out.write(tmp, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Gives the heap array of a pooled buffer back to the {@link BufferPool}.
+     * The buffer cannot be read afterwards. Does nothing for other buffers.
+     */
+    void release() {
+        if (!pooled || released) {
+            return;
+        }
+        released = true;
+        segments = null;
+        if (memory != null) {
+            BufferPool.release(memory.array());
+            memory = null;
+        }
+    }
+
+    private void checkClosed() {
+        if (!closed) {
+            throw new IllegalStateException("Payload buffer is still being written");
+        }
+        if (released) {
+            throw new IllegalStateException("Payload buffer has been released");
+        }
+    }
+
+    private OutputStream target() {
+        return fileStream != null ? fileStream : memory;
+    }
+
+    private void ensureCapacity(int len) throws IOException {
+        if (closed) {
+            throw new IOException("Payload buffer is closed");
+        }
+        if (fileStream == null && size + len > spillThreshold) {
+            file = Files.createTempFile("aws-request-signing-", ".payload");
+            fileStream = new BufferedOutputStream(Files.newOutputStream(file));
+            memory.writeTo(fileStream);
+            if (pooled) {
+                BufferPool.release(memory.array());
+            }
+            memory = null;
+        }
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} whose content can be viewed without
+     * being copied.
+     */
+    private static final class MemoryOutputStream extends ByteArrayOutputStream {
+        MemoryOutputStream(byte[] array) {
+            super(0);
+            this.buf = array;
+        }
+
+        ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private static ByteBuffer[] map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer[] mapped = new ByteBuffer[(int) ((size + MAX_SEGMENT_SIZE - 1) / MAX_SEGMENT_SIZE)];
+            for (int i = 0; i < mapped.length; i++) {
+                long position = i * MAX_SEGMENT_SIZE;
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                        Math.min(MAX_SEGMENT_SIZE, size - position));
+            }
+            return mapped;
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.delete(file);
+        } catch (IOException ex) {
+            // some platforms do not allow deleting a mapped file
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * An {@link InputStream} over a sequence of {@link ByteBuffer}s.
+     */
+    private static final class ByteBuffersInputStream extends InputStream {
+        private final ByteBuffer[] buffers;
+        private int current;
+        private int markedBuffer;
+        private int markedPosition;
+
+        ByteBuffersInputStream(ByteBuffer[] buffers) {
+            this.buffers = buffers;
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer buffer = nextBuffer();
+            return buffer == null ? -1 : Byte.toUnsignedInt(buffer.get());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            ByteBuffer buffer = nextBuffer();
+            if (buffer == null) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer buffer = nextBuffer();
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            markedBuffer = current;
+            markedPosition = current < buffers.length ? buffers[current].position() : 0;
+        }
+
+        @Override
+        public synchronized void reset() {
+            for (int i = markedBuffer + 1; i <= current && i < buffers.length; i++) {
+                buffers[i].rewind();
+            }
+            current = markedBuffer;
+            if (current < buffers.length) {
+                buffers[current].position(markedPosition);
+            }
+        }
+
+        private ByteBuffer nextBuffer() {
+            while (current < buffers.length) {
+                if (buffers[current].hasRemaining()) {
+                    return buffers[current];
+                }
+                current++;
+            }
+            return null;
+        }
+    }
+}
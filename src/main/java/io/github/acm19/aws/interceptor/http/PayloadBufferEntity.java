@@ -0,0 +1,78 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.util.Args;
+
+/**
+ * A repeatable {@link HttpEntity} backed by a {@link PayloadBuffer}.
+ */
+final class PayloadBufferEntity extends AbstractHttpEntity {
+    private final PayloadBuffer buffer;
+
+    /**
+     * Creates an entity with the content of {@code buffer} and the metadata of
+     * the entity it replaces.
+     *
+     * @param buffer   buffered payload
+     * @param original entity the payload was read from
+     */
+    PayloadBufferEntity(PayloadBuffer buffer, HttpEntity original) {
+        this.buffer = buffer;
+        setContentType(original.getContentType());
+        setContentEncoding(original.getContentEncoding());
+        setChunked(original.isChunked());
+    }
+
+    /**
+     * Creates an entity with the encoded content of {@code buffer} and the
+     * content type of the entity it replaces.
+     *
+     * @param buffer          buffered payload
+     * @param original        entity the payload was encoded from
+     * @param contentEncoding encoding of the buffered payload
+     */
+    PayloadBufferEntity(PayloadBuffer buffer, HttpEntity original, String contentEncoding) {
+        this.buffer = buffer;
+        setContentType(original.getContentType());
+        setContentEncoding(contentEncoding);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return buffer.size();
+    }
+
+    @Override
+    public InputStream getContent() {
+        return buffer.newInputStream();
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        Args.notNull(outStream, "Output stream");
+        buffer.writeTo(outStream);
+        outStream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+
+/**
+ * A repeatable {@link AsyncEntityProducer} backed by a {@link PayloadBuffer}.
+ */
+final class PayloadBufferEntityProducer implements AsyncEntityProducer {
+    private final PayloadBuffer buffer;
+    private final EntityDetails original;
+    private final List<? extends Header> trailers;
+    private final String contentEncoding;
+    private ByteBuffer[] content;
+    private int segment;
+    private long produced;
+    private boolean ended;
+
+    /**
+     * Creates a producer with the content of {@code buffer} and the metadata
+     * of the producer it replaces.
+     *
+     * @param buffer   buffered payload
+     * @param original producer the payload was read from
+     * @param trailers trailers to end the stream with, or {@code null}
+     */
+    PayloadBufferEntityProducer(PayloadBuffer buffer, EntityDetails original, List<? extends Header> trailers) {
+        this(buffer, original, trailers, original.getContentEncoding());
+    }
+
+    /**
+     * Creates a producer with the encoded content of {@code buffer} and the
+     * metadata of the producer it replaces.
+     *
+     * @param buffer          buffered payload
+     * @param original        producer the payload was encoded from
+     * @param trailers        trailers to end the stream with, or {@code null}
+     * @param contentEncoding encoding of the buffered payload
+     */
+    PayloadBufferEntityProducer(PayloadBuffer buffer,
+                                EntityDetails original,
+                                List<? extends Header> trailers,
+                                String contentEncoding) {
+        this.buffer = buffer;
+        this.original = original;
+        this.trailers = trailers;
+        this.contentEncoding = contentEncoding;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return buffer.size();
+    }
+
+    @Override
+    public String getContentType() {
+        return original.getContentType();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return original.isChunked();
+    }
+
+    @Override
+    public Set<String> getTrailerNames() {
+        return original.getTrailerNames();
+    }
+
+    @Override
+    public synchronized int available() {
+        return (int) Math.min(Integer.MAX_VALUE, buffer.size() - produced);
+    }
+
+    @Override
+    public synchronized void produce(DataStreamChannel channel) throws IOException {
+        if (ended) {
+            return;
+        }
+        if (content == null) {
+            content = buffer.views();
+        }
+        // the views are written as they are, without copying the payload
+        for (; segment < content.length; segment++) {
+            ByteBuffer view = content[segment];
+            produced += channel.write(view);
+            if (view.hasRemaining()) {
+                // the channel is full, it asks for more output once drained
+                return;
+            }
+        }
+        ended = true;
+        channel.endStream(trailers);
+    }
+
+    @Override
+    public void failed(Exception cause) {
+        releaseResources();
+    }
+
+    @Override
+    public synchronized void releaseResources() {
+        // the content is read again from the beginning if the request is repeated
+        content = null;
+        segment = 0;
+        produced = 0;
+        ended = false;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.security.MessageDigest;
+import java.util.concurrent.ThreadLocalRandom;
+import software.amazon.awssdk.utils.BinaryUtils;
+
+/**
+ * Payload hashes computed by the caller before the request is signed.
+ */
+final class PayloadSha256 {
+    /**
+     * Message of the exception thrown when a verified hash does not match the payload.
+     */
+    static final String MISMATCH_MESSAGE = "Precomputed payload SHA-256 does not match the request payload";
+
+    private static final int SHA256_LENGTH = 32;
+    private static final int SHA256_HEX_LENGTH = 64;
+    private static final int HEX_RADIX = 16;
+
+    private PayloadSha256() {
+    }
+
+    /**
+     * Returns the precomputed hash of a request payload, taken from the
+     * {@link SigningOptions#PAYLOAD_SHA256_ATTRIBUTE} context attribute or else
+     * from the {@code x-amz-content-sha256} header.
+     *
+     * @param attribute value of the context attribute, may be {@code null}
+     * @param header    value of the header, may be {@code null}
+     * @return the payload hash, or {@code null} if none was provided
+     * @throws IllegalArgumentException if the attribute is not a SHA-256
+     */
+    static byte[] precomputed(Object attribute, String header) {
+        if (attribute != null) {
+            byte[] sha256 = attribute instanceof byte[] ? ((byte[]) attribute).clone() : fromHex(attribute.toString());
+            if (sha256 == null || sha256.length != SHA256_LENGTH) {
+                throw new IllegalArgumentException(
+                        "Payload SHA-256 must be 32 bytes or 64 hexadecimal characters: " + attribute);
+            }
+            return sha256;
+        }
+        // the header may also hold placeholders such as UNSIGNED-PAYLOAD, which are not hashes
+        return header == null ? null : fromHex(header);
+    }
+
+    /**
+     * Returns whether a precomputed hash should be checked against the payload.
+     *
+     * @param rate fraction of the requests to check, between {@code 0} and {@code 1}
+     * @return {@code true} if the payload of this request should be hashed
+     */
+    static boolean sampled(double rate) {
+        return rate >= 1 || rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * Compares a precomputed hash with the hash of the payload.
+     *
+     * @param precomputed hash provided by the caller
+     * @param actual      hash of the payload
+     * @return {@code true} if both hashes are equal
+     */
+    static boolean matches(byte[] precomputed, byte[] actual) {
+        return MessageDigest.isEqual(precomputed, actual);
+    }
+
+    private static byte[] fromHex(String hex) {
+        if (hex.length() != SHA256_HEX_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < hex.length(); i++) {
+            if (Character.digit(hex.charAt(i), HEX_RADIX) < 0) {
+                return null;
+            }
+        }
+        return BinaryUtils.fromHex(hex);
+    }
+}
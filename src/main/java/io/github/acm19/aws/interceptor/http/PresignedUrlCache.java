@@ -0,0 +1,106 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches presigned URLs, so that identical requests reuse the signature of
+ * the first one until shortly before it expires. URLs are kept per request
+ * method, URI, headers and access key, see {@link #key}.
+ */
+final class PresignedUrlCache {
+    /**
+     * Maximum number of URLs kept, so that URLs of one-off requests do not
+     * accumulate.
+     */
+    static final int MAX_SIZE = 1024;
+
+    /**
+     * Maximum time before its expiry a presigned URL stops being reused, so
+     * that it is not about to expire when it reaches the service. URLs valid
+     * for less than twice this margin are reused for half their validity.
+     */
+    static final Duration MAX_REFRESH_MARGIN = Duration.ofMinutes(1);
+
+    private final ConcurrentMap<String, CachedQuery> urls = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the presigned query string cached for {@code key}, if it can
+     * still be reused at {@code now}.
+     *
+     * @param key request key
+     * @param now current time
+     * @return the presigned query string, or {@code null} if there is none to reuse
+     */
+    String get(String key, Instant now) {
+        CachedQuery entry = urls.get(key);
+        return entry != null && now.isBefore(entry.reuseUntil) ? entry.query : null;
+    }
+
+    /**
+     * Caches the presigned query string of {@code key}.
+     *
+     * @param key       request key
+     * @param query     presigned query string
+     * @param signedAt  signing time of the query string
+     * @param expiresAt expiry time of the query string
+     */
+    void put(String key, String query, Instant signedAt, Instant expiresAt) {
+        Duration validity = Duration.between(signedAt, expiresAt);
+        Duration margin = validity.compareTo(MAX_REFRESH_MARGIN.multipliedBy(2)) < 0
+                ? validity.dividedBy(2)
+                : MAX_REFRESH_MARGIN;
+        if (!urls.containsKey(key) && urls.size() >= MAX_SIZE) {
+            urls.clear();
+        }
+        urls.put(key, new CachedQuery(query, expiresAt.minus(margin)));
+    }
+
+    /**
+     * Returns the number of URLs cached.
+     *
+     * @return the number of URLs
+     */
+    int size() {
+        return urls.size();
+    }
+
+    /**
+     * Returns the key of a request, made of everything a presigned URL signs.
+     *
+     * @param method      request method
+     * @param uri         request URI
+     * @param headers     request headers, in a stable order
+     * @param accessKeyId access key signing the request
+     * @return the request key
+     */
+    static String key(String method, String uri, Map<String, List<String>> headers, String accessKeyId) {
+        StringBuilder key = new StringBuilder(method).append(' ').append(uri).append('\n').append(accessKeyId);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            key.append('\n').append(header.getKey()).append(':').append(header.getValue());
+        }
+        return key.toString();
+    }
+
+    private static final class CachedQuery {
+        private final String query;
+        private final Instant reuseUntil;
+
+        CachedQuery(String query, Instant reuseUntil) {
+            this.query = query;
+            this.reuseUntil = reuseUntil;
+        }
+    }
+}
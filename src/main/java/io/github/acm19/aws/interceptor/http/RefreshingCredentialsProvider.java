@@ -0,0 +1,175 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+
+/**
+ * Resolves credentials on a background thread and serves the last resolved
+ * ones without locking. Credentials are refreshed ahead of their expiry, and
+ * credentials without an expiry are refreshed periodically, while the current
+ * ones are still served. Credentials living less than the refresh lead time
+ * are refreshed at most once per {@link #MIN_REFRESH_INTERVAL}, so that they
+ * do not start a refresh on every call. Only a missing or expired snapshot
+ * makes callers wait, and asynchronous callers can wait without blocking, see
+ * {@link #refresh()}.
+ */
+final class RefreshingCredentialsProvider implements AwsCredentialsProvider {
+    /**
+     * Minimum time between a refresh and the next background refresh.
+     */
+    static final Duration MIN_REFRESH_INTERVAL = Duration.ofSeconds(10);
+
+    /**
+     * Threads refreshing credentials, shared by all the providers and only
+     * kept while refreshes are running.
+     */
+    private static final Executor REFRESHER = refresher();
+
+    private final AwsCredentialsProvider delegate;
+    private final Duration refreshAhead;
+    private final Clock clock;
+    private final AtomicReference<CompletableFuture<AwsCredentials>> refresh = new AtomicReference<>();
+    private volatile Snapshot snapshot;
+
+    /**
+     * Creates a provider refreshing the credentials of {@code delegate}.
+     *
+     * @param delegate     provider resolving the credentials
+     * @param refreshAhead time before their expiry credentials are refreshed,
+     *                     and period of refresh of credentials without expiry
+     * @param clock        clock the expiry is compared with
+     */
+    RefreshingCredentialsProvider(AwsCredentialsProvider delegate, Duration refreshAhead, Clock clock) {
+        this.delegate = delegate;
+        this.refreshAhead = refreshAhead;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the current credentials, starting a refresh in the background if
+     * they are due for one. Waits for a refresh only if there are no current
+     * credentials.
+     *
+     * @return the credentials
+     */
+    @Override
+    public AwsCredentials resolveCredentials() {
+        Snapshot current = snapshot;
+        Instant now = clock.instant();
+        if (current != null && now.isBefore(current.expiresAt)) {
+            if (!now.isBefore(current.refreshAt)) {
+                refresh();
+            }
+            return current.credentials;
+        }
+        try {
+            return refresh().join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns whether {@link #resolveCredentials()} would return without
+     * waiting for a refresh.
+     *
+     * @return {@code true} if there are current credentials
+     */
+    boolean isReady() {
+        Snapshot current = snapshot;
+        return current != null && clock.instant().isBefore(current.expiresAt);
+    }
+
+    /**
+     * Returns when the current credentials are due for a refresh.
+     *
+     * @return the refresh time, or {@code null} if there are no credentials
+     */
+    Instant refreshAt() {
+        Snapshot current = snapshot;
+        return current == null ? null : current.refreshAt;
+    }
+
+    /**
+     * Starts refreshing the credentials in the background, unless a refresh is
+     * already running.
+     *
+     * @return the refresh, completed with the refreshed credentials
+     */
+    CompletableFuture<AwsCredentials> refresh() {
+        while (true) {
+            CompletableFuture<AwsCredentials> running = refresh.get();
+            if (running != null) {
+                return running;
+            }
+            CompletableFuture<AwsCredentials> next = new CompletableFuture<>();
+            if (refresh.compareAndSet(null, next)) {
+                REFRESHER.execute(() -> resolve(next));
+                return next;
+            }
+        }
+    }
+
+    private void resolve(CompletableFuture<AwsCredentials> next) {
+        try {
+            AwsCredentials credentials = delegate.resolveCredentials();
+            Instant now = clock.instant();
+            Instant earliestRefresh = now.plus(MIN_REFRESH_INTERVAL);
+            snapshot = credentials.expirationTime()
+                    .map(expiresAt -> new Snapshot(credentials, latest(expiresAt.minus(refreshAhead), earliestRefresh),
+                                                   expiresAt))
+                    .orElseGet(() -> new Snapshot(credentials, latest(now.plus(refreshAhead), earliestRefresh),
+                                                  Instant.MAX));
+            refresh.set(null);
+            next.complete(credentials);
+        } catch (RuntimeException | Error ex) {
+            // the current credentials, if any, are served until the next refresh
+            refresh.set(null);
+            next.completeExceptionally(ex);
+        }
+    }
+
+    private static Instant latest(Instant instant, Instant other) {
+        return instant.isAfter(other) ? instant : other;
+    }
+
+    private static ExecutorService refresher() {
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "aws-credentials-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static final class Snapshot {
+        private final AwsCredentials credentials;
+        private final Instant refreshAt;
+        private final Instant expiresAt;
+
+        Snapshot(AwsCredentials credentials, Instant refreshAt, Instant expiresAt) {
+            this.credentials = credentials;
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -8,23 +8,47 @@
 
 package io.github.acm19.aws.interceptor.http;
 
+import static software.amazon.awssdk.http.auth.aws.signer.SignerConstant.AWS_CHUNKED;
+import static software.amazon.awssdk.http.auth.aws.signer.SignerConstant.CONTENT_ENCODING;
+import static software.amazon.awssdk.http.auth.aws.signer.SignerConstant.X_AMZ_SIGNATURE;
+
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import org.apache.http.HttpHost;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpCoreContext;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.CredentialUtils;
 import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4FamilyHttpSigner;
 import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4aHttpSigner;
+import software.amazon.awssdk.http.auth.aws.signer.RegionSet;
 import software.amazon.awssdk.http.auth.spi.signer.HttpSigner;
+import software.amazon.awssdk.http.auth.spi.signer.SignRequest;
 import software.amazon.awssdk.http.auth.spi.signer.SignedRequest;
 import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
 import software.amazon.awssdk.regions.Region;
 
 class RequestSigner {
+    /**
+     * Class of the SigV4 signer with default properties, whose signatures the
+     * native signer reproduces.
+     */
+    private static final Class<?> DEFAULT_V4_SIGNER = AwsV4HttpSigner.create().getClass();
+
     /**
      * A service the client is connecting to.
      */
@@ -37,10 +61,49 @@ class RequestSigner {
      * The source of AWS credentials for signing.
      */
     private final AwsCredentialsProvider awsCredentialsProvider;
+    /**
+     * The credentials the current thread signs a batch of requests with, see
+     * {@link #signingWith(AwsCredentials, BatchSigning.Signer)}.
+     */
+    private final ThreadLocal<AwsCredentials> batchCredentials = new ThreadLocal<>();
     /**
      * The signing region.
      */
     private final Region region;
+    /**
+     * The regions SigV4a signatures are valid in, or {@code null} for SigV4.
+     */
+    private final RegionSet regionSet;
+    /**
+     * The built-in signer reproducing the signatures of {@link #signer}, or
+     * {@code null} if {@link #signer} does not have default properties.
+     */
+    private final NativeV4Signer nativeSigner;
+    /**
+     * Whether every request is signed with {@link #nativeSigner} instead of
+     * {@link #signer}, and not only those with a precomputed payload hash.
+     */
+    private final boolean signsNatively;
+    /**
+     * The validity of presigned URLs, or {@code null} if requests are signed in headers.
+     */
+    private final Duration presignExpiration;
+    /**
+     * The presigned URLs reused by identical requests.
+     */
+    private final PresignedUrlCache presignedUrls = new PresignedUrlCache();
+    /**
+     * The clock giving the signing time, which presigned URLs expire with.
+     */
+    private final Clock clock;
+    /**
+     * The signing options.
+     */
+    private final SigningOptions options;
+    /**
+     * The digests payloads are hashed with.
+     */
+    private final Digests digests;
 
     /**
      *
@@ -53,10 +116,75 @@ class RequestSigner {
                   HttpSigner<AwsCredentialsIdentity> signer,
                   AwsCredentialsProvider awsCredentialsProvider,
                   Region region) {
+        this(service, signer, awsCredentialsProvider, region, SigningOptions.defaults());
+    }
+
+    /**
+     *
+     * @param service
+     * @param signer
+     * @param awsCredentialsProvider
+     * @param region
+     * @param options
+     */
+    RequestSigner(String service,
+                  HttpSigner<AwsCredentialsIdentity> signer,
+                  AwsCredentialsProvider awsCredentialsProvider,
+                  Region region,
+                  SigningOptions options) {
         this.service = service;
         this.signer = signer;
-        this.awsCredentialsProvider = awsCredentialsProvider;
         this.region = Objects.requireNonNull(region);
+        this.regionSet = options.regionSet();
+        this.presignExpiration = options.presignExpiration();
+        this.options = options;
+        this.clock = options.signingClock();
+        this.awsCredentialsProvider = options.credentialRefreshAhead() == null
+                ? awsCredentialsProvider
+                : new RefreshingCredentialsProvider(awsCredentialsProvider, options.credentialRefreshAhead(),
+                                                   // expiry is real time, whatever time requests are signed at
+                                                   Clock.systemUTC());
+        this.digests = Digests.of(options.digestProvider());
+        this.nativeSigner = signer.getClass() == DEFAULT_V4_SIGNER
+                ? new NativeV4Signer(service, region, this::resolveCredentials,
+                                     options.digestProvider() == null
+                                             ? SigningKeyCache.SHARED
+                                             : new SigningKeyCache(digests),
+                                     options.signatureMemoization() ? new SignatureMemo() : null,
+                                     options)
+                : null;
+        this.signsNatively = nativeSigner != null
+                && (options.nativeSigning() || options.signatureMemoization() || regionSet != null);
+    }
+
+    /**
+     * Resolves the credentials requests are signed with.
+     *
+     * @return the credentials of the current batch, or else of the provider
+     */
+    AwsCredentials resolveCredentials() {
+        AwsCredentials credentials = batchCredentials.get();
+        return credentials == null ? awsCredentialsProvider.resolveCredentials() : credentials;
+    }
+
+    /**
+     * Returns a signer of a batch of requests, which signs them with
+     * {@code credentials} instead of resolving credentials for each of them.
+     *
+     * @param <T>         type of the requests
+     * @param credentials credentials resolved once for the batch
+     * @param signer      signs a request with this signer
+     * @return a signer signing with {@code credentials} on any thread
+     */
+    <T> BatchSigning.Signer<T> signingWith(AwsCredentials credentials, BatchSigning.Signer<T> signer) {
+        return request -> {
+            batchCredentials.set(credentials);
+            try {
+                signer.sign(request);
+            } finally {
+                batchCredentials.remove();
+            }
+        };
     }
 
     /**
@@ -69,17 +197,254 @@ class RequestSigner {
      * @see AwsV4HttpSigner#sign
      */
     SignedRequest signRequest(SdkHttpFullRequest request) {
-        SignedRequest signedRequest = signer.sign(r -> r.identity(awsCredentialsProvider.resolveCredentials())
-                .request(request)
+        return signRequest(request, null);
+    }
+
+    /**
+     * Signs the {@code request} using
+     * <a href="https://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-header-based-auth.html">
+     * AWS Signature Version 4</a>, using {@code payloadSha256} as the payload
+     * hash instead of reading the payload.
+     *
+     * @param request to be signed
+     * @param payloadSha256 SHA-256 of the payload, or {@code null} to let the
+     *                      signer read and hash the payload
+     * @return signed request
+     * @see #acceptsPayloadSha256()
+     */
+    SignedRequest signRequest(SdkHttpFullRequest request, byte[] payloadSha256) {
+        if (payloadSha256 == null) {
+            return sign(request, r -> r.payload(request.contentStreamProvider().orElse(null)));
+        }
+
+        // AwsV4HttpSigner hashes the payload itself, so a precomputed hash is signed natively
+        SdkHttpFullRequest.Builder signedRequest = request.toBuilder();
+        nativeSigner.sign(request.method().name(), request.getUri(), NativeV4Signer.headers(request.headers()),
+                          header -> header[0], header -> header[1],
+                          NativeV4Signer.contentSha256(payloadSha256), signedRequest::putHeader);
+        return SignedRequest.builder()
+                .request(signedRequest.build())
                 .payload(request.contentStreamProvider().orElse(null))
-                .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, service)
-                .putProperty(AwsV4HttpSigner.REGION_NAME, region.id()));
+                .build();
+    }
+
+    /**
+     * Signs the {@code request} without its payload, which is declared as
+     * {@code UNSIGNED-PAYLOAD} and never read.
+     *
+     * @param request to be signed
+     * @return signed request
+     */
+    SignedRequest signRequestWithUnsignedPayload(SdkHttpFullRequest request) {
+        return sign(request, r -> r.putProperty(AwsV4FamilyHttpSigner.PAYLOAD_SIGNING_ENABLED, false));
+    }
 
-        return signedRequest;
+    /**
+     * Signs the headers of the {@code request} for a payload sent as
+     * {@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD} chunks. The request must carry the
+     * encoded {@code Content-Length} and the {@code x-amz-decoded-content-length}.
+     *
+     * @param request   to be signed
+     * @param chunkSize size of the payload chunks in bytes
+     * @return signer of the payload chunks, holding the signed request
+     * @see #supportsChunkedPayload()
+     */
+    ChunkSigner signRequestWithChunkedPayload(SdkHttpFullRequest request, int chunkSize) {
+        return nativeSigner.signChunked(request.toBuilder().appendHeader(CONTENT_ENCODING, AWS_CHUNKED).build(),
+                                        chunkSize);
     }
 
     /**
-     * Returns an {@link URI} from an HTTP context.
+     * Returns whether the signer can sign chunked payloads, see
+     * {@link #signRequestWithChunkedPayload(SdkHttpFullRequest, int)}.
+     *
+     * @return {@code true} if the signer is a SigV4 signer with default
+     *         properties and without a region set
+     */
+    boolean supportsChunkedPayload() {
+        return nativeSigner != null && regionSet == null;
+    }
+
+    /**
+     * Returns whether requests are signed with
+     * {@link #signNatively(String, URI, Object[], Function, Function, String, BiConsumer)}.
+     *
+     * @return {@code true} if native signing, signature memoization or a region set is
+     *         enabled and the signer has default properties
+     */
+    boolean signsNatively() {
+        return signsNatively;
+    }
+
+    /**
+     * Signs a request straight from its headers with the built-in signer and
+     * sets the signature headers on it.
+     *
+     * @param <H>           type of the request headers
+     * @param method        request method
+     * @param uri           request URI, including the host
+     * @param headers       request headers
+     * @param name          returns the name of a header
+     * @param value         returns the value of a header
+     * @param contentSha256 value of {@code x-amz-content-sha256}
+     * @param setHeader     sets a header of the request
+     * @see #signsNatively()
+     */
+    <H> void signNatively(String method,
+                          URI uri,
+                          H[] headers,
+                          Function<H, String> name,
+                          Function<H, String> value,
+                          String contentSha256,
+                          BiConsumer<String, String> setHeader) {
+        nativeSigner.sign(method, uri, headers, name, value, contentSha256, setHeader);
+    }
+
+    /**
+     * Returns whether credentials can be resolved without waiting for them to
+     * be refreshed.
+     *
+     * @return {@code false} if credentials are refreshed in the background and
+     *         none are current, see {@link #refreshCredentials()}
+     */
+    boolean hasCredentials() {
+        return !(awsCredentialsProvider instanceof RefreshingCredentialsProvider)
+                || ((RefreshingCredentialsProvider) awsCredentialsProvider).isReady();
+    }
+
+    /**
+     * Refreshes the credentials in the background, for callers which must not
+     * wait for them.
+     *
+     * @return the refresh, completed once the credentials are resolved
+     */
+    CompletableFuture<?> refreshCredentials() {
+        return awsCredentialsProvider instanceof RefreshingCredentialsProvider
+                ? ((RefreshingCredentialsProvider) awsCredentialsProvider).refresh()
+                : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Returns the digests payloads are hashed with.
+     *
+     * @return the digests
+     */
+    Digests digests() {
+        return digests;
+    }
+
+    /**
+     * Returns whether a request is signed in its query string, see
+     * {@link #presignedQuery(SdkHttpFullRequest, boolean)}.
+     *
+     * @param method     request method
+     * @param hasPayload whether the request has a payload
+     * @return {@code true} if presigning is enabled, the signer supports it
+     *         and the request is a {@code GET} or {@code HEAD} without payload
+     */
+    boolean presigns(String method, boolean hasPayload) {
+        return presignExpiration != null
+                && !hasPayload
+                && ("GET".equals(method) || "HEAD".equals(method))
+                && signer instanceof AwsV4FamilyHttpSigner
+                && (regionSet == null || signer instanceof AwsV4aHttpSigner);
+    }
+
+    /**
+     * Presigns the {@code request}, returning its query string with the
+     * signature parameters such as {@code X-Amz-Signature}. The query string
+     * of an identical request signed before is reused until shortly before
+     * it expires, and requests that are already presigned are left as they
+     * are, so that retries are not signed twice.
+     *
+     * @param request         request to presign, without payload
+     * @param unsignedPayload whether the payload is declared as {@code UNSIGNED-PAYLOAD}
+     * @return the presigned query string, or the query string of {@code request}
+     *         if it is left unsigned
+     * @see #presigns(String, boolean)
+     */
+    String presignedQuery(SdkHttpFullRequest request, boolean unsignedPayload) {
+        String query = request.getUri().getRawQuery();
+        if (query != null && query.contains(X_AMZ_SIGNATURE + "=")) {
+            return query;
+        }
+        AwsCredentialsIdentity credentials = resolveCredentials();
+        if (CredentialUtils.isAnonymous(credentials)) {
+            return query;
+        }
+
+        String key = PresignedUrlCache.key(request.method().name(), request.getUri().toString(), request.headers(),
+                                           credentials.accessKeyId());
+        // X-Amz-Date has a precision of a second, and presigned URLs expire relative to it
+        Instant now = clock.instant().truncatedTo(ChronoUnit.SECONDS);
+        String presignedQuery = presignedUrls.get(key, now);
+        if (presignedQuery == null) {
+            presignedQuery = sign(credentials, request, r -> r
+                    .putProperty(AwsV4FamilyHttpSigner.AUTH_LOCATION, AwsV4FamilyHttpSigner.AuthLocation.QUERY_STRING)
+                    .putProperty(AwsV4FamilyHttpSigner.EXPIRATION_DURATION, presignExpiration)
+                    .putProperty(AwsV4FamilyHttpSigner.PAYLOAD_SIGNING_ENABLED, !unsignedPayload)
+                    .putProperty(HttpSigner.SIGNING_CLOCK, Clock.fixed(now, clock.getZone())))
+                    .request().getUri().getRawQuery();
+            Instant expiresAt = now.plus(presignExpiration);
+            Instant credentialsExpireAt = credentials.expirationTime().orElse(expiresAt);
+            presignedUrls.put(key, presignedQuery, now,
+                              credentialsExpireAt.isBefore(expiresAt) ? credentialsExpireAt : expiresAt);
+        }
+        return presignedQuery;
+    }
+
+    private SignedRequest sign(SdkHttpFullRequest request,
+                               Consumer<SignRequest.Builder<AwsCredentialsIdentity>> payloadProperties) {
+        return sign(resolveCredentials(), request, payloadProperties);
+    }
+
+    private SignedRequest sign(AwsCredentialsIdentity credentials,
+                               SdkHttpFullRequest request,
+                               Consumer<SignRequest.Builder<AwsCredentialsIdentity>> payloadProperties) {
+        return signer.sign(r -> {
+            r.identity(credentials)
+                    .request(request)
+                    .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, service)
+                    .putProperty(AwsV4HttpSigner.REGION_NAME, region.id())
+                    .putProperty(HttpSigner.SIGNING_CLOCK, clock);
+            if (regionSet != null && signer instanceof AwsV4aHttpSigner) {
+                r.putProperty(AwsV4aHttpSigner.REGION_SET, regionSet);
+            }
+            payloadProperties.accept(r);
+        });
+    }
+
+    /**
+     * Returns whether the signer can sign with a precomputed payload hash,
+     * see {@link #signRequest(SdkHttpFullRequest, byte[])}.
+     *
+     * @return {@code true} if the signer has default properties, so that the
+     *         built-in signer signs with the precomputed hash
+     */
+    boolean acceptsPayloadSha256() {
+        return nativeSigner != null;
+    }
+
+    /**
+     * Replaces the query string of a request target, which may be a path or
+     * an absolute URI.
+     *
+     * @param target request target
+     * @param query  new query string, or {@code null} to remove it
+     * @return the request target with the new query string
+     */
+    static String withQuery(String target, String query) {
+        int end = target.indexOf('?');
+        if (end < 0) {
+            end = target.indexOf('#');
+        }
+        String path = end < 0 ? target : target.substring(0, end);
+        return query == null ? path : path + "?" + query;
+    }
+
+    /**
+     * Returns an {@link URI} from an HTTP context. URIs of paths already sent
+     * to the target host are reused, see {@link RequestUriCache}.
      *
      * @param context request context
      * @param uri request line URI
@@ -88,9 +453,15 @@ class RequestSigner {
      */
     static URI buildUri(HttpContext context, String uri) throws IOException {
         try {
-            URIBuilder uriBuilder = new URIBuilder(uri);
-
             HttpHost host = (HttpHost) context.getAttribute(HttpCoreContext.HTTP_TARGET_HOST);
+            if (host != null) {
+                URI cached = RequestUriCache.SHARED.uri(host, uri);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            URIBuilder uriBuilder = new URIBuilder(uri);
             if (host != null) {
                 uriBuilder.setHost(host.getHostName());
                 uriBuilder.setScheme(host.getSchemeName());
@@ -0,0 +1,145 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.http.HttpHost;
+
+/**
+ * Caches the URIs of 4.x requests, resolved from their request line against
+ * the target host. The {@code scheme://host:port} prefix of a target host is
+ * built once, and the URI of a path already seen for the host is reused
+ * instead of being parsed again, as the paths of a client tend to repeat,
+ * such as {@code /index/_bulk}. Request lines that are not a plain path, or
+ * an absolute URI whose authority is replaced by the target host, are left
+ * to {@link org.apache.http.client.utils.URIBuilder}.
+ */
+final class RequestUriCache {
+    /**
+     * Cache shared by all the interceptors.
+     */
+    static final RequestUriCache SHARED = new RequestUriCache();
+
+    /**
+     * Maximum number of target hosts kept.
+     */
+    static final int MAX_HOSTS = 64;
+
+    /**
+     * Maximum number of URIs kept per target host, so that the URIs of
+     * one-off requests do not accumulate.
+     */
+    static final int MAX_URIS = 1024;
+
+    private static final String SCHEME_SEPARATOR = "://";
+
+    private final ConcurrentMap<HttpHost, Target> targets = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the URI of a request line sent to {@code host}.
+     *
+     * @param host target host
+     * @param uri  request line URI
+     * @return the URI with the scheme, host and port of {@code host}, or
+     *         {@code null} if the request line is not a path or an absolute URI
+     * @throws URISyntaxException if the URI syntax is invalid
+     */
+    URI uri(HttpHost host, String uri) throws URISyntaxException {
+        String path = path(uri);
+        if (path == null) {
+            return null;
+        }
+        Target target = targets.get(host);
+        if (target == null) {
+            if (targets.size() >= MAX_HOSTS) {
+                targets.clear();
+            }
+            target = targets.computeIfAbsent(host, Target::new);
+        }
+        return target.uri(path);
+    }
+
+    /**
+     * Returns the number of URIs cached.
+     *
+     * @return the number of URIs
+     */
+    int size() {
+        int size = 0;
+        for (Target target : targets.values()) {
+            size += target.uris.size();
+        }
+        return size;
+    }
+
+    // path, query and fragment of a request line, or null if it has no path that can be reused as is
+    private static String path(String uri) {
+        if (uri.startsWith("/")) {
+            return uri.startsWith("//") ? null : uri;
+        }
+        int scheme = uri.indexOf(SCHEME_SEPARATOR);
+        if (scheme <= 0) {
+            return null;
+        }
+        for (int i = 0; i < scheme; i++) {
+            char c = uri.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.') {
+                return null;
+            }
+        }
+        int authority = scheme + SCHEME_SEPARATOR.length();
+        int end = authority;
+        while (end < uri.length() && "/?#".indexOf(uri.charAt(end)) < 0) {
+            if (uri.charAt(end) == '@') {
+                // user information is kept by URIBuilder
+                return null;
+            }
+            end++;
+        }
+        return uri.startsWith("//", end) ? null : uri.substring(end);
+    }
+
+    /**
+     * URIs of a target host.
+     */
+    private static final class Target {
+        private final String prefix;
+        private final ConcurrentMap<String, URI> uris = new ConcurrentHashMap<>();
+
+        Target(HttpHost host) {
+            String hostName = host.getHostName();
+            StringBuilder builder = new StringBuilder(host.getSchemeName()).append(SCHEME_SEPARATOR);
+            if (hostName.indexOf(':') >= 0 && !hostName.startsWith("[")) {
+                // IPv6 address
+                builder.append('[').append(hostName).append(']');
+            } else {
+                builder.append(hostName);
+            }
+            if (host.getPort() >= 0) {
+                builder.append(':').append(host.getPort());
+            }
+            this.prefix = builder.toString();
+        }
+
+        URI uri(String path) throws URISyntaxException {
+            URI uri = uris.get(path);
+            if (uri == null) {
+                uri = new URI(prefix + path);
+                if (uris.size() >= MAX_URIS) {
+                    uris.clear();
+                }
+                uris.put(path, uri);
+            }
+            return uri;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * An {@link OutputStream} that computes the SHA-256 of everything written to it
+ * and optionally forwards the bytes to another stream.
+ */
+final class Sha256OutputStream extends OutputStream {
+    private static final long MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+
+    private final MessageDigest digest;
+    private final OutputStream target;
+
+    /**
+     * Creates a stream that only hashes what is written.
+     *
+     * @param digests digests hashing the bytes
+     */
+    Sha256OutputStream(Digests digests) {
+        this(digests, null);
+    }
+
+    /**
+     * Creates a stream that hashes what is written and forwards it to {@code target}.
+     *
+     * @param digests digests hashing the bytes
+     * @param target  stream receiving the bytes, or {@code null} to discard them
+     */
+    Sha256OutputStream(Digests digests, OutputStream target) {
+        this.digest = digests.newSha256();
+        this.target = target;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        digest.update((byte) b);
+        if (target != null) {
+            target.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        digest.update(b, off, len);
+        if (target != null) {
+            target.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (target != null) {
+            target.flush();
+        }
+    }
+
+    /**
+     * Completes the hash computation.
+     *
+     * @return the SHA-256 of the bytes written
+     */
+    byte[] sha256() {
+        return digest.digest();
+    }
+
+    /**
+     * Hashes the remaining content of a file by mapping it, so it is not
+     * copied through the heap.
+     *
+     * @param channel channel over the file to hash
+     * @param digests digests hashing the file
+     * @return the SHA-256 of the file content from the current position
+     * @throws IOException if the file cannot be mapped
+     */
+    static byte[] sha256(FileChannel channel, Digests digests) throws IOException {
+        MessageDigest digest = digests.sha256();
+        long size = channel.size();
+        for (long position = channel.position(); position < size; position += MAX_MAPPED_SIZE) {
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                      Math.min(MAX_MAPPED_SIZE, size - position)));
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Memoizes the {@code Authorization} header of canonical requests, so that
+ * identical requests signed within the same second, such as health checks,
+ * reuse the signature of the first one. Canonical requests hold their
+ * {@code X-Amz-Date}, so a memoized signature is only found again within its
+ * second, and the memo is emptied whenever a signature of a later second is
+ * added. Lookups never lock.
+ */
+final class SignatureMemo {
+    /**
+     * Maximum number of signatures kept for a second.
+     */
+    static final int MAX_SIZE = 256;
+
+    private final ConcurrentMap<String, Memo> signatures = new ConcurrentHashMap<>();
+    /**
+     * {@code X-Amz-Date} of the signatures in the memo.
+     */
+    private volatile String amzDate = "";
+
+    /**
+     * Returns the memoized {@code Authorization} of a canonical request.
+     *
+     * @param key             canonical request followed by the access key, see {@link #put}
+     * @param secretAccessKey secret key of the access key
+     * @return the {@code Authorization} header, or {@code null} if it is not memoized
+     */
+    String get(String key, String secretAccessKey) {
+        Memo memo = signatures.get(key);
+        return memo != null && memo.secretAccessKey.equals(secretAccessKey) ? memo.authorization : null;
+    }
+
+    /**
+     * Memoizes the {@code Authorization} of a canonical request.
+     *
+     * @param key             canonical request, including {@code X-Amz-Date},
+     *                        followed by the access key
+     * @param amzDate         {@code X-Amz-Date} of the canonical request
+     * @param secretAccessKey secret key of the access key
+     * @param authorization   {@code Authorization} header
+     */
+    void put(String key, String amzDate, String secretAccessKey, String authorization) {
+        if (!amzDate.equals(this.amzDate)) {
+            // signatures of earlier seconds cannot be found again
+            signatures.clear();
+            this.amzDate = amzDate;
+        } else if (signatures.size() >= MAX_SIZE) {
+            signatures.clear();
+        }
+        signatures.put(key, new Memo(secretAccessKey, authorization));
+    }
+
+    /**
+     * Returns the number of signatures memoized.
+     *
+     * @return the number of signatures
+     */
+    int size() {
+        return signatures.size();
+    }
+
+    private static final class Memo {
+        private final String secretAccessKey;
+        private final String authorization;
+
+        Memo(String secretAccessKey, String authorization) {
+            this.secretAccessKey = secretAccessKey;
+            this.authorization = authorization;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Chooses the request headers that are signed. Headers left out are still
+ * sent, but may be changed on the way, for instance by proxies or by handlers
+ * further down the client's chain, without breaking the signature.
+ * {@code Host}, {@code X-Amz-Date}, {@code x-amz-content-sha256} and the other
+ * headers added by the signature are always signed.
+ *
+ * <pre>{@code
+ * SignedHeaderPolicy policy = SignedHeaderPolicy.deny("User-Agent", "Accept-Encoding", "traceparent");
+ * }</pre>
+ */
+public final class SignedHeaderPolicy {
+    private static final SignedHeaderPolicy ALL = new SignedHeaderPolicy(null, false);
+
+    /**
+     * Lowercase names of the headers allowed or denied, sorted.
+     */
+    private final String[] names;
+    private final boolean allow;
+
+    private SignedHeaderPolicy(String[] names, boolean allow) {
+        this.names = names;
+        this.allow = allow;
+    }
+
+    /**
+     * Returns a policy signing every header.
+     *
+     * @return the default policy
+     */
+    public static SignedHeaderPolicy all() {
+        return ALL;
+    }
+
+    /**
+     * Returns a policy only signing the headers with the given names, ignoring
+     * case, besides the headers added by the signature.
+     *
+     * @param names names of the headers to sign
+     * @return a policy signing the listed headers
+     */
+    public static SignedHeaderPolicy allow(String... names) {
+        return new SignedHeaderPolicy(lowerCase(names), true);
+    }
+
+    /**
+     * Returns a policy signing every header except those with the given names,
+     * ignoring case.
+     *
+     * @param names names of the headers not to sign
+     * @return a policy signing the other headers
+     */
+    public static SignedHeaderPolicy deny(String... names) {
+        return new SignedHeaderPolicy(lowerCase(names), false);
+    }
+
+    /**
+     * Returns whether a header is signed.
+     *
+     * @param name header name
+     * @return {@code true} if the header is signed
+     */
+    boolean signs(String name) {
+        if (names == null) {
+            return true;
+        }
+        return (Arrays.binarySearch(names, name.toLowerCase(Locale.ROOT)) >= 0) == allow;
+    }
+
+    /**
+     * Returns the lowercase names of the headers of an allowlist, from which
+     * the {@code SignedHeaders} of a request can be computed ahead of time.
+     *
+     * @return the sorted names, or {@code null} if the policy is not an allowlist
+     */
+    String[] allowed() {
+        return allow ? names.clone() : null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof SignedHeaderPolicy)) {
+            return false;
+        }
+        SignedHeaderPolicy policy = (SignedHeaderPolicy) other;
+        return allow == policy.allow && Arrays.equals(names, policy.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(Arrays.hashCode(names), allow);
+    }
+
+    private static String[] lowerCase(String... names) {
+        Set<String> lowerCaseNames = new TreeSet<>();
+        for (String name : names) {
+            lowerCaseNames.add(Objects.requireNonNull(name).toLowerCase(Locale.ROOT));
+        }
+        return lowerCaseNames.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.http.auth.spi.signer.HttpSigner;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+import software.amazon.awssdk.regions.Region;
+
+/**
+ * Shares signing contexts between interceptors, so that the clients of a
+ * process signing for the same service and region with the same credentials
+ * provider share their refreshed credentials, presigned URLs and memoized
+ * signatures instead of each keeping their own. Interceptors created with a
+ * registry share a context when they have the same credentials provider
+ * instance, service and region, equal {@link SigningOptions}, and the same
+ * signer. The signers of the AWS SDK, such as
+ * {@code AwsV4HttpSigner.create()}, hold no state and are the same when they
+ * are of the same class; other signers are compared by identity.
+ *
+ * <p>A registry holds on to the credentials providers, signers and options of
+ * its contexts. It keeps at most {@link #MAX_SIZE} contexts, forgetting the
+ * least recently used one when another is registered, and forgets all of
+ * them when {@link #clear()} is called; interceptors already created keep
+ * signing with their context either way. Registries are thread-safe.</p>
+ *
+ * <pre>{@code
+ * SignerRegistry registry = SignerRegistry.shared();
+ * new AwsRequestSigningApacheInterceptor("es", AwsV4HttpSigner.create(), credentials,
+ *                                        Region.US_WEST_2, options, registry);
+ * }</pre>
+ */
+public final class SignerRegistry {
+    /**
+     * Maximum number of signing contexts kept by a registry.
+     */
+    static final int MAX_SIZE = 256;
+
+    private static final SignerRegistry SHARED = new SignerRegistry();
+    private static final String SDK_PACKAGE = "software.amazon.awssdk.";
+
+    // guarded by itself, in access order so that the least recently used context is evicted
+    private final Map<Key, RequestSigner> signers = new LinkedHashMap<Key, RequestSigner>(MAX_SIZE, 1, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, RequestSigner> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * Creates an empty registry.
+     */
+    public SignerRegistry() {
+    }
+
+    /**
+     * Returns the registry shared by the whole process, which keeps its
+     * contexts until they are evicted or cleared.
+     *
+     * @return the shared registry
+     */
+    public static SignerRegistry shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the signer of a signing context, creating it if it is not
+     * registered yet.
+     *
+     * @param service                service the client is connecting to
+     * @param signer                 signer implementation
+     * @param awsCredentialsProvider source of AWS credentials for signing
+     * @param region                 signing region
+     * @param options                signing options
+     * @return the shared signer
+     */
+    RequestSigner signer(String service,
+                         HttpSigner<AwsCredentialsIdentity> signer,
+                         AwsCredentialsProvider awsCredentialsProvider,
+                         Region region,
+                         SigningOptions options) {
+        Key key = new Key(awsCredentialsProvider, service, Objects.requireNonNull(region), signerKey(signer),
+                          Objects.requireNonNull(options));
+        synchronized (signers) {
+            return signers.computeIfAbsent(
+                    key, k -> new RequestSigner(service, signer, awsCredentialsProvider, region, options));
+        }
+    }
+
+    /**
+     * Forgets every signing context, so that their credentials providers,
+     * signers and options can be garbage collected once the interceptors
+     * using them are. Interceptors created afterwards no longer share a
+     * context with those created before.
+     */
+    public void clear() {
+        synchronized (signers) {
+            signers.clear();
+        }
+    }
+
+    /**
+     * Returns the number of signing contexts registered.
+     *
+     * @return the number of contexts
+     */
+    int size() {
+        synchronized (signers) {
+            return signers.size();
+        }
+    }
+
+    // the class of an SDK signer, which holds no state, or the signer itself
+    private static Object signerKey(HttpSigner<AwsCredentialsIdentity> signer) {
+        Class<?> type = signer.getClass();
+        return type.getName().startsWith(SDK_PACKAGE) ? type : signer;
+    }
+
+    /**
+     * Identifies a signing context. Credentials providers and signers, or
+     * their class, are compared by identity, as they do not define equality.
+     */
+    private static final class Key {
+        private final AwsCredentialsProvider awsCredentialsProvider;
+        private final String service;
+        private final Region region;
+        private final Object signer;
+        private final SigningOptions options;
+
+        Key(AwsCredentialsProvider awsCredentialsProvider,
+            String service,
+            Region region,
+            Object signer,
+            SigningOptions options) {
+            this.awsCredentialsProvider = awsCredentialsProvider;
+            this.service = service;
+            this.region = region;
+            this.signer = signer;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return awsCredentialsProvider == key.awsCredentialsProvider
+                    && Objects.equals(service, key.service)
+                    && region.equals(key.region)
+                    && signer == key.signer
+                    && options.equals(key.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(awsCredentialsProvider), service, region,
+                                System.identityHashCode(signer), options);
+        }
+    }
+}
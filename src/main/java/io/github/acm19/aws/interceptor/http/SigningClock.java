@@ -0,0 +1,118 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Gives the signing time of a signer, with its {@code X-Amz-Date} and
+ * credential scope formatted once per second instead of for every signature.
+ * The current second is replaced without locking: threads crossing into a
+ * new second at the same time may each format it, and the last one is kept.
+ */
+final class SigningClock {
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter
+            .ofPattern("yyyyMMdd'T'HHmmss'Z'", Locale.ROOT)
+            .withZone(ZoneOffset.UTC);
+    private static final int DATE_LENGTH = "yyyyMMdd".length();
+
+    private final Clock clock;
+    private final String scopeSuffix;
+    private volatile Tick tick;
+
+    /**
+     * Creates a signing clock.
+     *
+     * @param clock       clock giving the signing time
+     * @param scopeSuffix credential scope after the date, such as
+     *                    {@code region/service/aws4_request}
+     */
+    SigningClock(Clock clock, String scopeSuffix) {
+        this.clock = clock;
+        this.scopeSuffix = scopeSuffix;
+    }
+
+    /**
+     * Returns the current second.
+     *
+     * @return the current second and its formatted date and scope
+     */
+    Tick tick() {
+        Instant now = clock.instant();
+        Tick current = tick;
+        if (current == null || current.epochSecond != now.getEpochSecond()) {
+            current = new Tick(now.getEpochSecond(), current);
+            tick = current;
+        }
+        return current;
+    }
+
+    /**
+     * A second of signing time.
+     */
+    final class Tick {
+        private final long epochSecond;
+        private final String amzDate;
+        private final String date;
+        private final String scope;
+
+        private Tick(long epochSecond, Tick previous) {
+            this.epochSecond = epochSecond;
+            this.amzDate = AMZ_DATE.format(Instant.ofEpochSecond(epochSecond));
+            if (previous != null && amzDate.regionMatches(0, previous.date, 0, DATE_LENGTH)) {
+                // the scope only changes with the date
+                this.date = previous.date;
+                this.scope = previous.scope;
+            } else {
+                this.date = amzDate.substring(0, DATE_LENGTH);
+                this.scope = date + "/" + scopeSuffix;
+            }
+        }
+
+        /**
+         * Returns the signing time, truncated to the second.
+         *
+         * @return the signing time
+         */
+        Instant instant() {
+            return Instant.ofEpochSecond(epochSecond);
+        }
+
+        /**
+         * Returns the signing time as {@code X-Amz-Date}.
+         *
+         * @return the time as {@code yyyyMMdd'T'HHmmss'Z'}
+         */
+        String amzDate() {
+            return amzDate;
+        }
+
+        /**
+         * Returns the signing date.
+         *
+         * @return the date as {@code yyyyMMdd}
+         */
+        String date() {
+            return date;
+        }
+
+        /**
+         * Returns the credential scope.
+         *
+         * @return the date followed by the scope suffix
+         */
+        String scope() {
+            return scope;
+        }
+    }
+}
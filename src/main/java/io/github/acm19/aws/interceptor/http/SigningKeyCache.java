@@ -0,0 +1,229 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPrivateKeySpec;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+
+/**
+ * Caches SigV4 signing keys, which are derived with four chained HMACs from
+ * the secret key, date, region and service, and so only change once a day
+ * for a given access key, region and service. A key is kept per access key,
+ * region and service, and derived again when the date rolls over or the
+ * secret key of the access key rotates.
+ *
+ * <p>SigV4a ECDSA keys, whose derivation is an order of magnitude costlier
+ * than a signature, only depend on the credentials and are kept per access
+ * key until its secret key rotates.</p>
+ */
+final class SigningKeyCache {
+    /**
+     * Cache shared by all the signers.
+     */
+    static final SigningKeyCache SHARED = new SigningKeyCache();
+
+    /**
+     * Maximum number of keys kept, so that keys of expired temporary
+     * credentials do not accumulate.
+     */
+    static final int MAX_SIZE = 256;
+
+    private static final String TERMINATOR = "aws4_request";
+    private static final String ECDSA_LABEL = "AWS4-ECDSA-P256-SHA256";
+    /**
+     * Fixed input of the SigV4a key derivation after the access key and
+     * counter: the 256 bits of key to derive, as a 32-bit big-endian integer.
+     */
+    private static final byte[] ECDSA_KEY_BITS = {0, 0, 1, 0};
+    /**
+     * Fixed input of the SigV4a key derivation before the label: the
+     * iteration of the counter mode KDF, always the first one.
+     */
+    private static final byte[] KDF_ITERATION = {0, 0, 0, 1};
+    private static final int MAX_ECDSA_COUNTER = 254;
+    private static final ECParameterSpec P256 = p256();
+
+    private final ConcurrentMap<String, Entry> keys = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, EcdsaEntry> ecdsaKeys = new ConcurrentHashMap<>();
+    private final Digests digests;
+
+    /**
+     * Creates a cache deriving keys with the default digests.
+     */
+    SigningKeyCache() {
+        this(Digests.defaults());
+    }
+
+    /**
+     * Creates a cache deriving keys with {@code digests}.
+     *
+     * @param digests digests deriving the keys
+     */
+    SigningKeyCache(Digests digests) {
+        this.digests = digests;
+    }
+
+    /**
+     * Returns the digests the keys are derived with.
+     *
+     * @return the digests
+     */
+    Digests digests() {
+        return digests;
+    }
+
+    /**
+     * Returns the signing key of {@code credentials} for a date, region and
+     * service. The returned array must not be modified.
+     *
+     * @param credentials credentials holding the secret key
+     * @param date        signing date, as {@code yyyyMMdd}
+     * @param region      signing region
+     * @param service     signing service
+     * @return the signing key
+     */
+    byte[] signingKey(AwsCredentialsIdentity credentials, String date, String region, String service) {
+        String scope = credentials.accessKeyId() + "/" + region + "/" + service;
+        Entry entry = keys.get(scope);
+        if (entry != null && entry.date.equals(date) && entry.secretAccessKey.equals(credentials.secretAccessKey())) {
+            return entry.signingKey;
+        }
+
+        byte[] signingKey = hmacSha256(digests, ("AWS4" + credentials.secretAccessKey()).getBytes(UTF_8), date);
+        signingKey = hmacSha256(digests, signingKey, region);
+        signingKey = hmacSha256(digests, signingKey, service);
+        signingKey = hmacSha256(digests, signingKey, TERMINATOR);
+        if (entry == null && keys.size() >= MAX_SIZE) {
+            keys.clear();
+        }
+        keys.put(scope, new Entry(date, credentials.secretAccessKey(), signingKey));
+        return signingKey;
+    }
+
+    /**
+     * Returns the SigV4a ECDSA P-256 private key of {@code credentials}.
+     *
+     * @param credentials credentials holding the secret key
+     * @return the private key
+     */
+    PrivateKey ecdsaKey(AwsCredentialsIdentity credentials) {
+        EcdsaEntry entry = ecdsaKeys.get(credentials.accessKeyId());
+        if (entry != null && entry.secretAccessKey.equals(credentials.secretAccessKey())) {
+            return entry.privateKey;
+        }
+
+        PrivateKey privateKey;
+        try {
+            privateKey = KeyFactory.getInstance("EC").generatePrivate(new ECPrivateKeySpec(
+                    ecdsaPrivateValue(credentials.accessKeyId(), credentials.secretAccessKey(), digests), P256));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("EC keys are not available", ex);
+        }
+        if (entry == null && ecdsaKeys.size() >= MAX_SIZE) {
+            ecdsaKeys.clear();
+        }
+        ecdsaKeys.put(credentials.accessKeyId(), new EcdsaEntry(credentials.secretAccessKey(), privateKey));
+        return privateKey;
+    }
+
+    /**
+     * Derives the private value of a SigV4a key with the NIST SP 800-108
+     * counter mode KDF, HMAC-SHA256 keyed by {@code "AWS4A" + secretAccessKey}.
+     * A counter appended to the access key is increased until the derived
+     * value is below the order of P-256 minus one.
+     *
+     * @param accessKeyId     access key
+     * @param secretAccessKey secret key
+     * @param digests         digests computing the KDF
+     * @return the private value
+     */
+    static BigInteger ecdsaPrivateValue(String accessKeyId, String secretAccessKey, Digests digests) {
+        byte[] key = ("AWS4A" + secretAccessKey).getBytes(UTF_8);
+        BigInteger maxValue = P256.getOrder().subtract(BigInteger.valueOf(2));
+        for (int counter = 1; counter <= MAX_ECDSA_COUNTER; counter++) {
+            ByteArrayOutputStream input = new ByteArrayOutputStream();
+            input.write(KDF_ITERATION, 0, KDF_ITERATION.length);
+            byte[] label = ECDSA_LABEL.getBytes(UTF_8);
+            input.write(label, 0, label.length);
+            input.write(0);
+            byte[] context = accessKeyId.getBytes(UTF_8);
+            input.write(context, 0, context.length);
+            input.write(counter);
+            input.write(ECDSA_KEY_BITS, 0, ECDSA_KEY_BITS.length);
+
+            BigInteger value = new BigInteger(1, digests.hmacSha256(key).doFinal(input.toByteArray()));
+            if (value.compareTo(maxValue) <= 0) {
+                return value.add(BigInteger.ONE);
+            }
+        }
+        throw new IllegalStateException("Cannot derive a SigV4a key for " + accessKeyId);
+    }
+
+    /**
+     * Returns the number of keys cached.
+     *
+     * @return the number of keys
+     */
+    int size() {
+        return keys.size();
+    }
+
+    private static byte[] hmacSha256(Digests digests, byte[] key, String data) {
+        return digests.hmacSha256(key).doFinal(data.getBytes(UTF_8));
+    }
+
+    /**
+     * Returns the parameters of the NIST P-256 curve SigV4a signs with.
+     *
+     * @return the curve parameters
+     */
+    static ECParameterSpec p256() {
+        try {
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+            parameters.init(new ECGenParameterSpec("secp256r1"));
+            return parameters.getParameterSpec(ECParameterSpec.class);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("The P-256 curve is not available", ex);
+        }
+    }
+
+    private static final class Entry {
+        private final String date;
+        private final String secretAccessKey;
+        private final byte[] signingKey;
+
+        Entry(String date, String secretAccessKey, byte[] signingKey) {
+            this.date = date;
+            this.secretAccessKey = secretAccessKey;
+            this.signingKey = signingKey;
+        }
+    }
+
+    private static final class EcdsaEntry {
+        private final String secretAccessKey;
+        private final PrivateKey privateKey;
+
+        EcdsaEntry(String secretAccessKey, PrivateKey privateKey) {
+            this.secretAccessKey = secretAccessKey;
+            this.privateKey = privateKey;
+        }
+    }
+}
@@ -0,0 +1,642 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.net.URI;
+import java.security.Provider;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+import software.amazon.awssdk.http.auth.aws.signer.RegionSet;
+
+/**
+ * Options that control how {@link AwsRequestSigningApacheInterceptor} and
+ * {@link AwsRequestSigningApacheV5Interceptor} read and sign request payloads.
+ * Options are equal when all their settings are equal; the digest provider is
+ * compared by identity, and the policies by their own {@code equals}, which is
+ * identity for a custom {@link UnsignedPayloadPolicy}.
+ */
+public final class SigningOptions {
+    /**
+     * Name of the {@code HttpContext} attribute holding a SHA-256 of the request
+     * payload computed by the caller, either as a {@code byte[]} or as a
+     * hexadecimal {@code String}. A hexadecimal SHA-256 in the
+     * {@code x-amz-content-sha256} request header is honoured as well. The
+     * hash is only used with {@code AwsV4HttpSigner.create()}, whose signature
+     * is then computed by a built-in implementation, as the SDK signer always
+     * hashes the payload itself.
+     */
+    public static final String PAYLOAD_SHA256_ATTRIBUTE = "io.github.acm19.aws.interceptor.payload-sha256";
+
+    /**
+     * Longest validity of a presigned URL allowed by SigV4.
+     */
+    static final Duration MAX_PRESIGN_EXPIRATION = Duration.ofDays(7);
+
+    private static final SigningOptions DEFAULTS = builder().build();
+
+    /**
+     * Whether the payload hash is computed while the entity is read.
+     */
+    private final boolean streamingPayloadHash;
+    /**
+     * Size in bytes above which buffered payloads are written to a temporary file.
+     */
+    private final long payloadSpillThreshold;
+    /**
+     * Chooses the requests whose payload is not signed.
+     */
+    private final UnsignedPayloadPolicy unsignedPayloadPolicy;
+    /**
+     * Size in bytes of the signed chunks of chunked payloads, {@code 0} if disabled.
+     */
+    private final int streamingChunkSize;
+    /**
+     * Fraction of the precomputed payload hashes checked against the payload.
+     */
+    private final double payloadSha256VerificationRate;
+    /**
+     * Whether payloads are compressed with gzip before being signed.
+     */
+    private final boolean gzipPayload;
+    /**
+     * Whether requests are signed by the built-in SigV4 implementation.
+     */
+    private final boolean nativeSigning;
+    /**
+     * Regions SigV4a signatures are valid in, or {@code null} to sign with SigV4.
+     */
+    private final RegionSet regionSet;
+    /**
+     * Validity of the URLs bodiless GET and HEAD requests are presigned with,
+     * or {@code null} to sign them in headers.
+     */
+    private final Duration presignExpiration;
+    /**
+     * Whether the signatures of identical bodiless requests are reused within a second.
+     */
+    private final boolean signatureMemoization;
+    /**
+     * JCA provider of the SHA-256 and HmacSHA256 of the signing path, or
+     * {@code null} for the most preferred installed providers.
+     */
+    private final Provider digestProvider;
+    /**
+     * Clock giving the signing time.
+     */
+    private final Clock signingClock;
+    /**
+     * Time before their expiry credentials are refreshed in the background,
+     * or {@code null} to resolve them when signing.
+     */
+    private final Duration credentialRefreshAhead;
+    /**
+     * Chooses the request headers that are signed.
+     */
+    private final SignedHeaderPolicy signedHeaderPolicy;
+
+    private SigningOptions(Builder builder) {
+        this.streamingPayloadHash = builder.streamingPayloadHash;
+        this.payloadSpillThreshold = builder.payloadSpillThreshold;
+        this.unsignedPayloadPolicy = builder.unsignedPayloadPolicy;
+        this.streamingChunkSize = builder.streamingChunkSize;
+        this.payloadSha256VerificationRate = builder.payloadSha256VerificationRate;
+        this.gzipPayload = builder.gzipPayload;
+        this.nativeSigning = builder.nativeSigning;
+        this.regionSet = builder.regionSet;
+        this.presignExpiration = builder.presignExpiration;
+        this.signatureMemoization = builder.signatureMemoization;
+        this.digestProvider = builder.digestProvider;
+        this.signingClock = builder.signingClock;
+        this.credentialRefreshAhead = builder.credentialRefreshAhead;
+        this.signedHeaderPolicy = builder.signedHeaderPolicy;
+    }
+
+    /**
+     * Returns the default options.
+     *
+     * @return the default options
+     */
+    public static SigningOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Returns a new {@link Builder}.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns whether the SHA-256 of the payload is computed in a single pass
+     * while the entity is read and handed to the signer as
+     * {@code x-amz-content-sha256}.
+     *
+     * @return {@code true} if streaming payload hashing is enabled
+     */
+    public boolean streamingPayloadHash() {
+        return streamingPayloadHash;
+    }
+
+    /**
+     * Returns the payload size in bytes above which a buffered payload is
+     * written to a temporary file instead of being kept on the heap.
+     *
+     * @return the spill threshold, {@link Long#MAX_VALUE} if payloads are never spilled
+     */
+    public long payloadSpillThreshold() {
+        return payloadSpillThreshold;
+    }
+
+    /**
+     * Returns the policy choosing the requests whose payload is sent as
+     * {@code UNSIGNED-PAYLOAD}.
+     *
+     * @return the unsigned payload policy
+     */
+    public UnsignedPayloadPolicy unsignedPayloadPolicy() {
+        return unsignedPayloadPolicy;
+    }
+
+    /**
+     * Returns whether the payload of a request is sent as {@code UNSIGNED-PAYLOAD}.
+     * Payloads are only left unsigned over HTTPS, which protects their integrity
+     * instead of the signature.
+     *
+     * @param method        request method
+     * @param uri           request URI
+     * @param contentLength length of the payload, {@code -1} if unknown
+     * @return {@code true} if the request is sent over HTTPS and matched by the
+     *         unsigned payload policy
+     */
+    boolean unsignedPayload(String method, URI uri, long contentLength) {
+        return "https".equalsIgnoreCase(uri.getScheme()) && unsignedPayloadPolicy.appliesTo(method, uri, contentLength);
+    }
+
+    /**
+     * Returns the size in bytes of the chunks chunked and unknown-length payloads
+     * are signed in with {@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD}.
+     *
+     * @return the chunk size, {@code 0} if chunked payloads are buffered and signed as a whole
+     */
+    public int streamingChunkSize() {
+        return streamingChunkSize;
+    }
+
+    /**
+     * Returns the fraction of the requests whose precomputed payload hash is
+     * checked against the payload.
+     *
+     * @return the verification rate, between {@code 0} and {@code 1}
+     */
+    public double payloadSha256VerificationRate() {
+        return payloadSha256VerificationRate;
+    }
+
+    /**
+     * Returns whether payloads without a {@code Content-Encoding} are compressed
+     * with gzip while they are hashed.
+     *
+     * @return {@code true} if payloads are compressed
+     */
+    public boolean gzipPayload() {
+        return gzipPayload;
+    }
+
+    /**
+     * Returns whether requests are signed straight from their headers by the
+     * built-in SigV4 implementation, instead of being converted for the signer.
+     *
+     * @return {@code true} if native signing is enabled
+     */
+    public boolean nativeSigning() {
+        return nativeSigning;
+    }
+
+    /**
+     * Returns the regions requests are signed for with SigV4a.
+     *
+     * @return the region set, or {@code null} if requests are signed with SigV4
+     */
+    public RegionSet regionSet() {
+        return regionSet;
+    }
+
+    /**
+     * Returns the validity of the presigned URLs bodiless {@code GET} and
+     * {@code HEAD} requests are signed with.
+     *
+     * @return the presigned URL validity, or {@code null} if requests are signed in headers
+     */
+    public Duration presignExpiration() {
+        return presignExpiration;
+    }
+
+    /**
+     * Returns whether identical bodiless {@code GET} and {@code HEAD} requests
+     * signed within the same second reuse the same signature.
+     *
+     * @return {@code true} if signatures are memoized
+     */
+    public boolean signatureMemoization() {
+        return signatureMemoization;
+    }
+
+    /**
+     * Returns the JCA provider payloads are hashed and native signatures are
+     * computed with.
+     *
+     * @return the provider, or {@code null} if the most preferred installed providers are used
+     */
+    public Provider digestProvider() {
+        return digestProvider;
+    }
+
+    /**
+     * Returns the clock giving the signing time.
+     *
+     * @return the signing clock
+     */
+    public Clock signingClock() {
+        return signingClock;
+    }
+
+    /**
+     * Returns the time before their expiry credentials are refreshed in the
+     * background.
+     *
+     * @return the refresh lead time, or {@code null} if credentials are resolved when signing
+     */
+    public Duration credentialRefreshAhead() {
+        return credentialRefreshAhead;
+    }
+
+    /**
+     * Returns the policy choosing the request headers that are signed.
+     *
+     * @return the signed header policy
+     */
+    public SignedHeaderPolicy signedHeaderPolicy() {
+        return signedHeaderPolicy;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof SigningOptions)) {
+            return false;
+        }
+        SigningOptions options = (SigningOptions) other;
+        return streamingPayloadHash == options.streamingPayloadHash
+                && payloadSpillThreshold == options.payloadSpillThreshold
+                && unsignedPayloadPolicy.equals(options.unsignedPayloadPolicy)
+                && streamingChunkSize == options.streamingChunkSize
+                && Double.compare(payloadSha256VerificationRate, options.payloadSha256VerificationRate) == 0
+                && gzipPayload == options.gzipPayload
+                && nativeSigning == options.nativeSigning
+                && Objects.equals(regionSet, options.regionSet)
+                && Objects.equals(presignExpiration, options.presignExpiration)
+                && signatureMemoization == options.signatureMemoization
+                && digestProvider == options.digestProvider
+                && signingClock.equals(options.signingClock)
+                && Objects.equals(credentialRefreshAhead, options.credentialRefreshAhead)
+                && signedHeaderPolicy.equals(options.signedHeaderPolicy);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(streamingPayloadHash, payloadSpillThreshold, unsignedPayloadPolicy, streamingChunkSize,
+                            payloadSha256VerificationRate, gzipPayload, nativeSigning, regionSet, presignExpiration,
+                            signatureMemoization, System.identityHashCode(digestProvider), signingClock,
+                            credentialRefreshAhead, signedHeaderPolicy);
+    }
+
+    /**
+     * Builder for {@link SigningOptions}.
+     */
+    public static final class Builder {
+        private boolean streamingPayloadHash;
+        private long payloadSpillThreshold = Long.MAX_VALUE;
+        private UnsignedPayloadPolicy unsignedPayloadPolicy = UnsignedPayloadPolicy.none();
+        private int streamingChunkSize;
+        private double payloadSha256VerificationRate;
+        private boolean gzipPayload;
+        private boolean nativeSigning;
+        private RegionSet regionSet;
+        private Duration presignExpiration;
+        private boolean signatureMemoization;
+        private Provider digestProvider;
+        private Clock signingClock = Clock.systemUTC();
+        private Duration credentialRefreshAhead;
+        private SignedHeaderPolicy signedHeaderPolicy = SignedHeaderPolicy.all();
+
+        private Builder() {
+        }
+
+        /**
+         * Computes the SHA-256 of the payload while the entity is read, so the
+         * signer does not read the payload a second time. Repeatable entities are
+         * hashed without being buffered. The hash is signed by a built-in
+         * implementation of {@code AwsV4HttpSigner.create()}, with the same
+         * headers and signature, so this only applies to that signer. Other
+         * signers always receive the payload.
+         *
+         * @param streamingPayloadHash {@code true} to enable streaming payload hashing
+         * @return this builder
+         */
+        public Builder streamingPayloadHash(boolean streamingPayloadHash) {
+            this.streamingPayloadHash = streamingPayloadHash;
+            return this;
+        }
+
+        /**
+         * Writes payloads larger than {@code payloadSpillThreshold} bytes to a
+         * temporary file while they are buffered for signing and retries. The file
+         * is memory-mapped and deleted once the payload has been read. Payloads
+         * are kept on the heap by default.
+         *
+         * @param payloadSpillThreshold size in bytes above which payloads spill to disk
+         * @return this builder
+         * @throws IllegalArgumentException if {@code payloadSpillThreshold} is negative
+         */
+        public Builder payloadSpillThreshold(long payloadSpillThreshold) {
+            if (payloadSpillThreshold < 0) {
+                throw new IllegalArgumentException("Payload spill threshold must not be negative");
+            }
+            this.payloadSpillThreshold = payloadSpillThreshold;
+            return this;
+        }
+
+        /**
+         * Sends the payload of the requests matched by {@code unsignedPayloadPolicy}
+         * as {@code UNSIGNED-PAYLOAD}, without buffering or hashing it. The policy
+         * only applies to requests sent over HTTPS, the payload of other requests
+         * is always signed. Every payload is signed by default.
+         *
+         * @param unsignedPayloadPolicy policy choosing the requests with unsigned payloads
+         * @return this builder
+         */
+        public Builder unsignedPayloadPolicy(UnsignedPayloadPolicy unsignedPayloadPolicy) {
+            this.unsignedPayloadPolicy = Objects.requireNonNull(unsignedPayloadPolicy);
+            return this;
+        }
+
+        /**
+         * Signs chunked and unknown-length payloads as
+         * {@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD}, each chunk of
+         * {@code streamingChunkSize} bytes being signed as it is sent. The decoded
+         * length of the payload is signed, so payloads of unknown length are still
+         * buffered whole before the first chunk is sent. They stay on the heap
+         * unless {@link #payloadSpillThreshold(long)} is set, whose default is
+         * unbounded. Chunked payloads of a known length are never buffered. Only
+         * applies to {@code AwsV4HttpSigner.create()}, whose seed signature and
+         * chunk signatures are computed by a built-in implementation. Disabled by
+         * default.
+         *
+         * @param streamingChunkSize chunk size in bytes, at least 8 KiB, or {@code 0} to disable
+         * @return this builder
+         * @throws IllegalArgumentException if {@code streamingChunkSize} is positive and less than 8 KiB
+         */
+        public Builder streamingChunkSize(int streamingChunkSize) {
+            if (streamingChunkSize < 0 || (streamingChunkSize > 0 && streamingChunkSize < ChunkSigner.MIN_CHUNK_SIZE)) {
+                throw new IllegalArgumentException("Streaming chunk size must be 0 or at least "
+                        + ChunkSigner.MIN_CHUNK_SIZE + " bytes");
+            }
+            this.streamingChunkSize = streamingChunkSize;
+            return this;
+        }
+
+        /**
+         * Sets the fraction of the requests whose precomputed payload hash, see
+         * {@link SigningOptions#PAYLOAD_SHA256_ATTRIBUTE}, is checked by hashing the
+         * payload before it is sent. Requests whose hash does not match fail. Hashes
+         * are trusted without being checked by default.
+         *
+         * @param payloadSha256VerificationRate fraction between {@code 0} and {@code 1}
+         * @return this builder
+         * @throws IllegalArgumentException if the rate is not between {@code 0} and {@code 1}
+         */
+        public Builder payloadSha256VerificationRate(double payloadSha256VerificationRate) {
+            if (!(payloadSha256VerificationRate >= 0 && payloadSha256VerificationRate <= 1)) {
+                throw new IllegalArgumentException("Payload SHA-256 verification rate must be between 0 and 1");
+            }
+            this.payloadSha256VerificationRate = payloadSha256VerificationRate;
+            return this;
+        }
+
+        /**
+         * Compresses request payloads with gzip, hashing and buffering the
+         * compressed bytes in the same pass, and sends them with
+         * {@code Content-Encoding: gzip} and their compressed length. Payloads
+         * that already have a {@code Content-Encoding} or a precomputed hash, see
+         * {@link SigningOptions#PAYLOAD_SHA256_ATTRIBUTE}, are sent as they are.
+         * Compressed payloads have a known length, so they are never sent as
+         * signed chunks. With {@code AwsV4HttpSigner.create()} the hash of the
+         * compressed bytes is signed as is, other signers read the compressed
+         * buffer. Disabled by default.
+         *
+         * @param gzipPayload {@code true} to compress payloads
+         * @return this builder
+         */
+        public Builder gzipPayload(boolean gzipPayload) {
+            this.gzipPayload = gzipPayload;
+            return this;
+        }
+
+        /**
+         * Signs requests straight from their method, URI and headers with a
+         * built-in SigV4 implementation, which only adds the signature headers to
+         * the request. Signatures are the same as those of
+         * {@link software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner#create()},
+         * so this only applies to that signer, and payloads are always hashed
+         * before signing. Chunked payloads, see {@link #streamingChunkSize(int)},
+         * have their seed signature and chunks signed by the built-in
+         * implementation whether or not this is enabled. Disabled by default.
+         *
+         * @param nativeSigning {@code true} to enable native signing
+         * @return this builder
+         */
+        public Builder nativeSigning(boolean nativeSigning) {
+            this.nativeSigning = nativeSigning;
+            return this;
+        }
+
+        /**
+         * Signs requests with SigV4a, for multi-region access points and global
+         * endpoints, so that signatures are valid in any region of the set
+         * instead of the signing region only. With
+         * {@link software.amazon.awssdk.http.auth.aws.signer.AwsV4aHttpSigner}
+         * the region set is passed to the signer. With
+         * {@link software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner#create()}
+         * requests are signed by a built-in SigV4a implementation, which does not
+         * need the AWS CRT and keeps the ECDSA key derived from the credentials,
+         * and payloads are always hashed before signing. Other signers ignore the
+         * region set. Chunked payloads, see {@link #streamingChunkSize(int)}, are
+         * not signed in chunks with SigV4a. Requests are signed with SigV4 by
+         * default.
+         *
+         * @param regionSet regions signatures are valid in, such as
+         *                  {@link RegionSet#GLOBAL}, or {@code null} to sign with SigV4
+         * @return this builder
+         */
+        public Builder regionSet(RegionSet regionSet) {
+            this.regionSet = regionSet;
+            return this;
+        }
+
+        /**
+         * Signs {@code GET} and {@code HEAD} requests without a payload in their
+         * query string, as presigned URLs valid for {@code presignExpiration},
+         * instead of in headers. Identical requests, with the same URI, headers
+         * and credentials, reuse the presigned URL until shortly before it
+         * expires, so polling the same resource is signed once per validity
+         * period. URLs do not outlive the credentials they are signed with.
+         * Requests with a payload are still signed in headers. Only applies to
+         * {@link software.amazon.awssdk.http.auth.aws.signer.AwsV4FamilyHttpSigner}
+         * signers, and with a region set, see {@link #regionSet(RegionSet)}, to
+         * {@link software.amazon.awssdk.http.auth.aws.signer.AwsV4aHttpSigner}.
+         * Requests are signed in headers by default.
+         *
+         * @param presignExpiration validity of presigned URLs, in whole seconds
+         *                          from 1 second to 7 days, or {@code null} to
+         *                          sign requests in headers
+         * @return this builder
+         * @throws IllegalArgumentException if {@code presignExpiration} is shorter
+         *                                  than 1 second or longer than 7 days
+         */
+        public Builder presignExpiration(Duration presignExpiration) {
+            if (presignExpiration != null && (presignExpiration.getSeconds() < 1
+                    || presignExpiration.compareTo(MAX_PRESIGN_EXPIRATION) > 0)) {
+                throw new IllegalArgumentException("Presign expiration must be between 1 second and 7 days");
+            }
+            this.presignExpiration = presignExpiration;
+            return this;
+        }
+
+        /**
+         * Memoizes the signatures of bodiless {@code GET} and {@code HEAD}
+         * requests by canonical request and credentials, so that identical
+         * requests signed within the same second, such as health checks and
+         * status polls, reuse the signature of the first one instead of being
+         * signed again. Requests are signed by the built-in implementation, see
+         * {@link #nativeSigning(boolean)}, so this only applies to
+         * {@link software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner#create()}.
+         * Disabled by default.
+         *
+         * @param signatureMemoization {@code true} to memoize signatures
+         * @return this builder
+         */
+        public Builder signatureMemoization(boolean signatureMemoization) {
+            this.signatureMemoization = signatureMemoization;
+            return this;
+        }
+
+        /**
+         * Hashes payloads, and computes the signatures of the built-in
+         * implementation, see {@link #nativeSigning(boolean)}, with the
+         * SHA-256 and HmacSHA256 of a given JCA provider, such as a FIPS
+         * validated one. An algorithm the provider lacks is taken from its most
+         * preferred provider. By default, the most preferred installed provider
+         * of each algorithm is used, as resolved by
+         * {@link java.security.MessageDigest#getInstance(String)} and
+         * {@link javax.crypto.Mac#getInstance(String)}. Either way, digest and MAC
+         * instances are reused per thread instead of being looked up for each
+         * request.
+         *
+         * @param digestProvider provider of SHA-256, HmacSHA256 or both, or
+         *                       {@code null} to use the most preferred installed providers
+         * @return this builder
+         * @throws IllegalArgumentException if {@code digestProvider} provides
+         *                                  neither algorithm
+         */
+        public Builder digestProvider(Provider digestProvider) {
+            if (digestProvider != null && !Digests.provides(digestProvider)) {
+                throw new IllegalArgumentException(digestProvider.getName()
+                        + " provides neither SHA-256 nor HmacSHA256");
+            }
+            this.digestProvider = digestProvider;
+            return this;
+        }
+
+        /**
+         * Takes the signing time of requests from {@code signingClock}, for
+         * instance a fixed clock so that signatures are reproducible in tests
+         * and benchmarks. The built-in implementation, see
+         * {@link #nativeSigning(boolean)}, formats the {@code X-Amz-Date} and
+         * credential scope once per second of this clock. The system clock in
+         * UTC is used by default. The expiry of credentials, see
+         * {@link #credentialRefreshAhead(Duration)}, is always checked against
+         * the system clock.
+         *
+         * @param signingClock clock giving the signing time
+         * @return this builder
+         */
+        public Builder signingClock(Clock signingClock) {
+            this.signingClock = Objects.requireNonNull(signingClock);
+            return this;
+        }
+
+        /**
+         * Resolves credentials on a background thread instead of when signing,
+         * and signs with the last resolved credentials, which are read without
+         * locking. Credentials are refreshed {@code credentialRefreshAhead}
+         * before they expire, and credentials without an expiry every
+         * {@code credentialRefreshAhead}, while the current ones are still used,
+         * but no sooner than 10 seconds after the previous refresh, so that
+         * credentials living less than {@code credentialRefreshAhead} are not
+         * refreshed on every request. Signing only waits for credentials when none are current, and the
+         * async client then proceeds once they are resolved instead of blocking
+         * its I/O thread. Credentials are resolved when signing by default.
+         *
+         * @param credentialRefreshAhead time before their expiry credentials are
+         *                               refreshed, or {@code null} to resolve
+         *                               them when signing
+         * @return this builder
+         * @throws IllegalArgumentException if {@code credentialRefreshAhead} is
+         *                                  not positive
+         */
+        public Builder credentialRefreshAhead(Duration credentialRefreshAhead) {
+            if (credentialRefreshAhead != null
+                    && (credentialRefreshAhead.isZero() || credentialRefreshAhead.isNegative())) {
+                throw new IllegalArgumentException("Credential refresh lead time must be positive");
+            }
+            this.credentialRefreshAhead = credentialRefreshAhead;
+            return this;
+        }
+
+        /**
+         * Only signs the request headers chosen by {@code signedHeaderPolicy},
+         * so that headers changed after signing, such as {@code User-Agent} or
+         * tracing headers, do not break the signature. With an allowlist, the
+         * {@code SignedHeaders} of the native signer are computed once. Every
+         * header is signed by default.
+         *
+         * @param signedHeaderPolicy policy choosing the headers to sign
+         * @return this builder
+         */
+        public Builder signedHeaderPolicy(SignedHeaderPolicy signedHeaderPolicy) {
+            this.signedHeaderPolicy = Objects.requireNonNull(signedHeaderPolicy);
+            return this;
+        }
+
+        /**
+         * Builds the {@link SigningOptions}.
+         *
+         * @return the options
+         */
+        public SigningOptions build() {
+            return new SigningOptions(this);
+        }
+    }
+}
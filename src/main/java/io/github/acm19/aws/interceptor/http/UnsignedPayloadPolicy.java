@@ -0,0 +1,125 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import java.net.URI;
+import java.util.Objects;
+
+/**
+ * Chooses the requests whose payload is not signed. The payload of a matching
+ * request is neither buffered nor hashed, and {@code x-amz-content-sha256} is
+ * set to {@code UNSIGNED-PAYLOAD}. Only services that accept unsigned payloads,
+ * such as Amazon S3, should be matched. The policy is only consulted for
+ * requests sent over HTTPS, so that a payload left unsigned is still protected
+ * by TLS; requests sent over plain HTTP always have their payload signed.
+ *
+ * <pre>{@code
+ * UnsignedPayloadPolicy policy = UnsignedPayloadPolicy.host("bucket.s3.us-west-2.amazonaws.com")
+ *         .and(UnsignedPayloadPolicy.method("PUT"))
+ *         .and(UnsignedPayloadPolicy.contentLengthAtLeast(1024 * 1024));
+ * }</pre>
+ */
+@FunctionalInterface
+public interface UnsignedPayloadPolicy {
+    /**
+     * Returns whether the payload of a request is sent unsigned.
+     *
+     * @param method        request method
+     * @param uri           request URI
+     * @param contentLength length of the payload, {@code -1} if unknown
+     * @return {@code true} if the payload should not be signed
+     */
+    boolean appliesTo(String method, URI uri, long contentLength);
+
+    /**
+     * Returns a policy matching requests matched by both this and {@code other}.
+     *
+     * @param other policy to combine with
+     * @return the combined policy
+     */
+    default UnsignedPayloadPolicy and(UnsignedPayloadPolicy other) {
+        Objects.requireNonNull(other);
+        return (method, uri, contentLength) -> appliesTo(method, uri, contentLength)
+                && other.appliesTo(method, uri, contentLength);
+    }
+
+    /**
+     * Returns a policy matching requests matched by either this or {@code other}.
+     *
+     * @param other policy to combine with
+     * @return the combined policy
+     */
+    default UnsignedPayloadPolicy or(UnsignedPayloadPolicy other) {
+        Objects.requireNonNull(other);
+        return (method, uri, contentLength) -> appliesTo(method, uri, contentLength)
+                || other.appliesTo(method, uri, contentLength);
+    }
+
+    /**
+     * Returns a policy that signs every payload.
+     *
+     * @return a policy matching no request
+     */
+    static UnsignedPayloadPolicy none() {
+        return (method, uri, contentLength) -> false;
+    }
+
+    /**
+     * Returns a policy that signs no payload.
+     *
+     * @return a policy matching every request
+     */
+    static UnsignedPayloadPolicy all() {
+        return (method, uri, contentLength) -> true;
+    }
+
+    /**
+     * Returns a policy matching requests to {@code host}, ignoring case.
+     *
+     * @param host host name
+     * @return a policy matching the host
+     */
+    static UnsignedPayloadPolicy host(String host) {
+        Objects.requireNonNull(host);
+        return (method, uri, contentLength) -> host.equalsIgnoreCase(uri.getHost());
+    }
+
+    /**
+     * Returns a policy matching requests whose path starts with {@code pathPrefix}.
+     *
+     * @param pathPrefix path prefix, such as {@code /uploads/}
+     * @return a policy matching the path prefix
+     */
+    static UnsignedPayloadPolicy pathPrefix(String pathPrefix) {
+        Objects.requireNonNull(pathPrefix);
+        return (method, uri, contentLength) -> uri.getRawPath() != null && uri.getRawPath().startsWith(pathPrefix);
+    }
+
+    /**
+     * Returns a policy matching requests with {@code method}, ignoring case.
+     *
+     * @param method request method, such as {@code PUT}
+     * @return a policy matching the method
+     */
+    static UnsignedPayloadPolicy method(String method) {
+        Objects.requireNonNull(method);
+        return (requestMethod, uri, contentLength) -> method.equalsIgnoreCase(requestMethod);
+    }
+
+    /**
+     * Returns a policy matching requests with a payload of at least
+     * {@code minContentLength} bytes. Payloads of unknown length are matched.
+     *
+     * @param minContentLength minimum payload length in bytes
+     * @return a policy matching large payloads
+     */
+    static UnsignedPayloadPolicy contentLengthAtLeast(long minContentLength) {
+        return (method, uri, contentLength) -> contentLength < 0 || contentLength >= minContentLength;
+    }
+}
@@ -8,38 +8,93 @@
 
 package io.github.acm19.aws.interceptor.http;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPOutputStream;
+import org.apache.http.Header;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.entity.BasicHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
 import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.HttpCoreContext;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.http.auth.aws.signer.RegionSet;
 import software.amazon.awssdk.regions.Region;
 
 class AwsRequestSigningApacheInterceptorTest {
+    private static final int BATCH_SIZE = 3;
+    private static final SigningOptions STREAMING_PAYLOAD_HASH = SigningOptions.builder()
+            .streamingPayloadHash(true)
+            .build();
+    private static final SigningOptions SPILL_TO_DISK = SigningOptions.builder()
+            .payloadSpillThreshold(1)
+            .build();
+    private static final SigningOptions STREAMING_CHUNKS = SigningOptions.builder()
+            .streamingChunkSize(ChunkSigner.MIN_CHUNK_SIZE)
+            .build();
+    private static final SigningOptions UNSIGNED_POST_PAYLOAD = SigningOptions.builder()
+            .unsignedPayloadPolicy(UnsignedPayloadPolicy.method("POST"))
+            .build();
+    private static final SigningOptions VERIFY_PAYLOAD_SHA256 = SigningOptions.builder()
+            .payloadSha256VerificationRate(1)
+            .build();
+    private static final SigningOptions GZIP_PAYLOAD = SigningOptions.builder()
+            .gzipPayload(true)
+            .build();
+    private static final SigningOptions NATIVE_SIGNING = SigningOptions.builder()
+            .nativeSigning(true)
+            .build();
+    private static final SigningOptions GLOBAL_REGION_SET = SigningOptions.builder()
+            .regionSet(RegionSet.GLOBAL)
+            .build();
+    private static final SigningOptions PRESIGNED_URLS = SigningOptions.builder()
+            .presignExpiration(Duration.ofHours(1))
+            .build();
+    private static final Clock FIXED_CLOCK = Clock.fixed(Instant.parse("2024-02-29T23:59:59Z"), ZoneOffset.UTC);
+
     private CloseableHttpClient client;
     private HttpHost host;
     private MockWebServer server;
@@ -165,4 +220,557 @@ class AwsRequestSigningApacheInterceptorTest {
         assertEquals(Long.toString(entity.getContentLength()),
                     recorded.getHeader("signedContentLength"));
     }
+
+    @Test
+    void signPostRequestWithStreamingPayloadHash() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        String payload = "{\"test\": \"val\"}";
+        BasicHttpEntity httpEntity = new BasicHttpEntity();
+        httpEntity.setContentType("application/json");
+        httpEntity.setContent(new ByteArrayInputStream(payload.getBytes(UTF_8)));
+        request.setEntity(httpEntity);
+
+        try (CloseableHttpClient streamingClient = signingClient(STREAMING_PAYLOAD_HASH)) {
+            streamingClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals(payload, new String(body, UTF_8));
+        assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    @Test
+    void signPostRequestWithPrecomputedPayloadSha256() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        String payload = "{\"test\": \"val\"}";
+        BasicHttpEntity httpEntity = new BasicHttpEntity();
+        httpEntity.setContentType("application/json");
+        httpEntity.setContent(new ByteArrayInputStream(payload.getBytes(UTF_8)));
+        request.setEntity(httpEntity);
+        request.addHeader("x-amz-content-sha256", SignatureVerifier.sha256Hex(payload.getBytes(UTF_8)));
+
+        try (CloseableHttpClient precomputedClient = signingClient(SigningOptions.defaults())) {
+            precomputedClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals(payload, new String(body, UTF_8));
+        assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+        assertNull(recorded.getHeader("x-amz-checksum-sha256"));
+    }
+
+    @Test
+    void rejectPostRequestWithMismatchingPayloadSha256() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        request.setEntity(new StringEntity("I'm an entity"));
+        HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(SigningOptions.PAYLOAD_SHA256_ATTRIBUTE, SignatureVerifier.sha256Hex(new byte[0]));
+
+        try (CloseableHttpClient verifyingClient = signingClient(VERIFY_PAYLOAD_SHA256)) {
+            assertThrows(IOException.class, () -> verifyingClient.execute(host, request, context));
+        }
+    }
+
+    @Test
+    void signRepeatablePostRequestWithStreamingPayloadHash() throws Exception {
+        String data = "I'm an entity";
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        StringEntity entity = new StringEntity(data);
+        request.setEntity(entity);
+
+        try (CloseableHttpClient streamingClient = signingClient(STREAMING_PAYLOAD_HASH)) {
+            streamingClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals(data, new String(body, UTF_8));
+        assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    @Test
+    void signSameHeadersWithStreamingPayloadHash() throws Exception {
+        server.enqueue(new MockResponse());
+        try (CloseableHttpClient streamingClient = signingClient(STREAMING_PAYLOAD_HASH);
+             CloseableHttpClient signingClient = signingClient(SigningOptions.defaults())) {
+            HttpEntityEnclosingRequest streamingRequest = new BasicHttpEntityEnclosingRequest(
+                    "POST", server.url("/query?a=b").toString());
+            streamingRequest.setEntity(new StringEntity("I'm an entity"));
+            streamingClient.execute(host, streamingRequest);
+            HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                    "POST", server.url("/query?a=b").toString());
+            request.setEntity(new StringEntity("I'm an entity"));
+            signingClient.execute(host, request);
+        }
+        RecordedRequest streamingSigned = server.takeRequest();
+        RecordedRequest signed = server.takeRequest();
+
+        assertEquals(signedHeaders(signed), signedHeaders(streamingSigned));
+        assertEquals(signed.getHeaders().names(), streamingSigned.getHeaders().names());
+        assertNull(streamingSigned.getHeader("x-amz-checksum-sha256"));
+    }
+
+    @Test
+    void signByteArrayPostRequestInPlace() throws Exception {
+        byte[] payload = "{\"test\": \"val\"}".getBytes(UTF_8);
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        request.setEntity(new ByteArrayEntity(payload, ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpClient signingClient = signingClient(SigningOptions.defaults())) {
+            signingClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertArrayEquals(payload, body);
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    @Test
+    void signFilePostRequestInPlace(@TempDir Path directory) throws Exception {
+        assertFileSigned(directory, SigningOptions.defaults());
+    }
+
+    @Test
+    void signFilePostRequestWithStreamingPayloadHash(@TempDir Path directory) throws Exception {
+        assertFileSigned(directory, STREAMING_PAYLOAD_HASH);
+    }
+
+    @Test
+    void signPostRequestWithGzipPayload() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        String payload = "{\"test\": \"val\"}";
+        request.setEntity(new StringEntity(payload, ContentType.APPLICATION_JSON));
+
+        assertGzipSigned(request, payload.getBytes(UTF_8));
+    }
+
+    @Test
+    void signChunkedPostRequestWithGzipPayload() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        byte[] payload = largePayload();
+        BasicHttpEntity httpEntity = new BasicHttpEntity();
+        httpEntity.setContent(new ByteArrayInputStream(payload));
+        httpEntity.setChunked(true);
+        request.setEntity(httpEntity);
+
+        assertGzipSigned(request, payload);
+    }
+
+    @Test
+    void signGetRequestNatively() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "GET", server.url("/path/./to/../resource?b=2&a=x%20y").toString());
+        request.addHeader("foo", "  bar   baz ");
+
+        try (CloseableHttpClient nativeClient = signingClient(NATIVE_SIGNING)) {
+            nativeClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    @Test
+    void signPostRequestNatively() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        String payload = "{\"test\": \"val\"}";
+        BasicHttpEntity httpEntity = new BasicHttpEntity();
+        httpEntity.setContentType("application/json");
+        httpEntity.setContent(new ByteArrayInputStream(payload.getBytes(UTF_8)));
+        request.setEntity(httpEntity);
+
+        try (CloseableHttpClient nativeClient = signingClient(NATIVE_SIGNING)) {
+            nativeClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals(payload, new String(body, UTF_8));
+        assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    @Test
+    void signGetRequestWithRepeatedHeaders() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "GET", server.url("/query?a=b").toString());
+        request.addHeader("foo", "bar");
+        request.addHeader("Foo", "baz");
+        request.addHeader("x-other", "qux");
+
+        try (CloseableHttpClient signingClient = signingClient(SigningOptions.defaults())) {
+            signingClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals(Arrays.asList("bar", "baz"), recorded.getHeaders().values("foo"));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    @Test
+    void signOnlyTheHeadersOfThePolicy() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "GET", server.url("/query?a=b").toString());
+        request.addHeader("foo", "bar");
+        request.addHeader("traceparent", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+        SigningOptions options = SigningOptions.builder()
+                .signedHeaderPolicy(SignedHeaderPolicy.deny("Traceparent"))
+                .build();
+
+        try (CloseableHttpClient signingClient = signingClient(options)) {
+            signingClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01", recorded.getHeader("traceparent"));
+        assertFalse(recorded.getHeader("Authorization").contains("traceparent"));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    @Test
+    void keepHeadersNotChangedBySigner() throws Exception {
+        AwsRequestSigningApacheInterceptor interceptor = new AwsRequestSigningApacheInterceptor(
+                SignatureVerifier.SERVICE,
+                AwsV4HttpSigner.create(),
+                SignatureVerifier.CREDENTIALS,
+                SignatureVerifier.REGION,
+                SigningOptions.defaults());
+        HttpRequest request = new BasicHttpRequest("GET", "/query?a=b");
+        Header foo = new BasicHeader("Foo", "bar");
+        request.addHeader(foo);
+        HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, host);
+
+        interceptor.process(request, context);
+
+        assertSame(foo, request.getFirstHeader("foo"));
+        assertEquals(Digests.EMPTY_SHA256, request.getFirstHeader("x-amz-content-sha256").getValue());
+        assertTrue(request.containsHeader("Authorization"));
+        assertTrue(request.containsHeader("X-Amz-Date"));
+    }
+
+    @Test
+    void signPostRequestWithSigV4a() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        String payload = "{\"test\": \"val\"}";
+        request.setEntity(new StringEntity(payload, ContentType.APPLICATION_JSON));
+        request.addHeader("foo", "bar");
+
+        try (CloseableHttpClient sigV4aClient = signingClient(GLOBAL_REGION_SET)) {
+            sigV4aClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals(payload, new String(body, UTF_8));
+        assertEquals("*", recorded.getHeader("X-Amz-Region-Set"));
+        assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+        assertTrue(recorded.getHeader("Authorization").startsWith("AWS4-ECDSA-P256-SHA256 Credential="));
+        assertTrue(SignatureVerifier.verifiesSigV4a(recorded));
+    }
+
+    @Test
+    void signRequestsAtTheTimeOfTheSigningClock() throws Exception {
+        server.enqueue(new MockResponse());
+        try (CloseableHttpClient sdkClient = signingClient(SigningOptions.builder()
+                     .signingClock(FIXED_CLOCK)
+                     .build());
+             CloseableHttpClient nativeClient = signingClient(SigningOptions.builder()
+                     .nativeSigning(true)
+                     .signingClock(FIXED_CLOCK)
+                     .build())) {
+            sdkClient.execute(host, new BasicHttpRequest("GET", "/status?a=b")).close();
+            nativeClient.execute(host, new BasicHttpRequest("GET", "/status?a=b")).close();
+        }
+        RecordedRequest sdkSigned = server.takeRequest();
+        RecordedRequest nativelySigned = server.takeRequest();
+
+        assertEquals("20240229T235959Z", sdkSigned.getHeader("X-Amz-Date"));
+        assertEquals(SignatureVerifier.expectedAuthorization(sdkSigned, new byte[0]),
+                     sdkSigned.getHeader("Authorization"));
+        assertEquals(sdkSigned.getHeader("X-Amz-Date"), nativelySigned.getHeader("X-Amz-Date"));
+        assertEquals(sdkSigned.getHeader("Authorization"), nativelySigned.getHeader("Authorization"));
+    }
+
+    @Test
+    void refreshExpiredCredentialsDespiteFixedSigningClock() throws Exception {
+        AtomicInteger resolutions = new AtomicInteger();
+        // expired for the system clock, but not for the signing clock
+        AwsCredentialsProvider credentials = () -> AwsSessionCredentials.builder()
+                .accessKeyId("AKID" + resolutions.incrementAndGet())
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expirationTime(FIXED_CLOCK.instant().plus(Duration.ofHours(1)))
+                .build();
+        server.enqueue(new MockResponse());
+        try (CloseableHttpClient refreshingClient = HttpClients.custom()
+                .addInterceptorLast(new AwsRequestSigningApacheInterceptor(
+                        SignatureVerifier.SERVICE,
+                        AwsV4HttpSigner.create(),
+                        credentials,
+                        SignatureVerifier.REGION,
+                        SigningOptions.builder()
+                                .credentialRefreshAhead(Duration.ofMinutes(1))
+                                .signingClock(FIXED_CLOCK)
+                                .build()))
+                .build()) {
+            refreshingClient.execute(host, new BasicHttpRequest("GET", "/status")).close();
+            refreshingClient.execute(host, new BasicHttpRequest("GET", "/status")).close();
+        }
+
+        assertEquals("20240229T235959Z", server.takeRequest().getHeader("X-Amz-Date"));
+        assertTrue(server.takeRequest().getHeader("Authorization").contains("Credential=AKID2/"));
+    }
+
+    @Test
+    void shareCredentialsBetweenClientsOfARegistry() throws Exception {
+        AtomicInteger resolutions = new AtomicInteger();
+        AwsCredentialsProvider credentials = () -> {
+            resolutions.incrementAndGet();
+            return SignatureVerifier.CREDENTIALS.resolveCredentials();
+        };
+        SignerRegistry registry = new SignerRegistry();
+        server.enqueue(new MockResponse());
+        for (int i = 0; i < 2; i++) {
+            // each client builds its own signer and options
+            try (CloseableHttpClient registeredClient = HttpClients.custom()
+                    .addInterceptorLast(new AwsRequestSigningApacheInterceptor(
+                            SignatureVerifier.SERVICE,
+                            AwsV4HttpSigner.create(),
+                            credentials,
+                            SignatureVerifier.REGION,
+                            SigningOptions.builder()
+                                    .credentialRefreshAhead(Duration.ofHours(1))
+                                    .build(),
+                            registry))
+                    .build()) {
+                registeredClient.execute(host, new BasicHttpRequest("GET", "/status")).close();
+            }
+            RecordedRequest recorded = server.takeRequest();
+
+            assertEquals(SignatureVerifier.expectedAuthorization(recorded, new byte[0]),
+                         recorded.getHeader("Authorization"));
+        }
+
+        assertEquals(1, resolutions.get());
+    }
+
+    @Test
+    void signGetRequestWithReusedPresignedUrl() throws Exception {
+        server.enqueue(new MockResponse());
+        try (CloseableHttpClient presigningClient = signingClient(PRESIGNED_URLS)) {
+            for (int i = 0; i < 2; i++) {
+                HttpRequest request = new BasicHttpRequest("GET", "/status?a=b");
+                request.addHeader("foo", "bar");
+                presigningClient.execute(host, request).close();
+            }
+        }
+        RecordedRequest recorded = server.takeRequest();
+
+        assertNull(recorded.getHeader("Authorization"));
+        assertNull(recorded.getHeader("x-amz-content-sha256"));
+        assertTrue(recorded.getPath().startsWith("/status?a=b&"));
+        assertTrue(recorded.getPath().contains("&X-Amz-Expires=3600&"));
+        assertEquals(SignatureVerifier.expectedPresignedPath(recorded), recorded.getPath());
+        assertEquals(recorded.getPath(), server.takeRequest().getPath());
+    }
+
+    @Test
+    void signRequestsAheadOfTime() throws Exception {
+        AtomicInteger resolutions = new AtomicInteger();
+        AwsRequestSigningApacheInterceptor interceptor = new AwsRequestSigningApacheInterceptor(
+                SignatureVerifier.SERVICE,
+                AwsV4HttpSigner.create(),
+                () -> {
+                    resolutions.incrementAndGet();
+                    return SignatureVerifier.CREDENTIALS.resolveCredentials();
+                },
+                SignatureVerifier.REGION,
+                SigningOptions.defaults());
+        List<HttpRequest> requests = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/index/_doc/" + i);
+            request.setEntity(new StringEntity("{\"id\": " + i + "}", ContentType.APPLICATION_JSON));
+            requests.add(request);
+            server.enqueue(new MockResponse());
+        }
+
+        interceptor.signAll(requests, host);
+        try (CloseableHttpClient batchClient = HttpClients.custom().addInterceptorLast(interceptor).build()) {
+            for (HttpRequest request : requests) {
+                batchClient.execute(host, request).close();
+            }
+        }
+
+        assertEquals(1, resolutions.get());
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            RecordedRequest recorded = server.takeRequest();
+            byte[] body = recorded.getBody().readByteArray();
+            assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+        }
+    }
+
+    @Test
+    void signPostRequestSpillingPayloadToDisk() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        String payload = "{\"test\": \"val\"}";
+        BasicHttpEntity httpEntity = new BasicHttpEntity();
+        httpEntity.setContentType("application/json");
+        httpEntity.setContent(new ByteArrayInputStream(payload.getBytes(UTF_8)));
+        request.setEntity(httpEntity);
+
+        try (CloseableHttpClient spillingClient = signingClient(SPILL_TO_DISK)) {
+            spillingClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals(payload, new String(body, UTF_8));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    @Test
+    void signHttpsPostRequestWithUnsignedPayload() throws Exception {
+        AwsRequestSigningApacheInterceptor interceptor = new AwsRequestSigningApacheInterceptor(
+                SignatureVerifier.SERVICE,
+                AwsV4HttpSigner.create(),
+                SignatureVerifier.CREDENTIALS,
+                SignatureVerifier.REGION,
+                UNSIGNED_POST_PAYLOAD);
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/query?a=b");
+        BasicHttpEntity httpEntity = new BasicHttpEntity();
+        httpEntity.setContent(new ByteArrayInputStream("{\"test\": \"val\"}".getBytes(UTF_8)));
+        request.setEntity(httpEntity);
+        HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST,
+                             new HttpHost(server.getHostName(), server.getPort(), "https"));
+
+        interceptor.process(request, context);
+
+        assertSame(httpEntity, request.getEntity());
+        assertEquals("UNSIGNED-PAYLOAD", request.getFirstHeader("x-amz-content-sha256").getValue());
+        assertTrue(request.containsHeader("Authorization"));
+    }
+
+    @Test
+    void signHttpPostRequestPayloadDespiteUnsignedPayloadPolicy() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        String payload = "{\"test\": \"val\"}";
+        BasicHttpEntity httpEntity = new BasicHttpEntity();
+        httpEntity.setContentType("application/json");
+        httpEntity.setContent(new ByteArrayInputStream(payload.getBytes(UTF_8)));
+        request.setEntity(httpEntity);
+
+        try (CloseableHttpClient unsignedClient = signingClient(UNSIGNED_POST_PAYLOAD)) {
+            unsignedClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals(payload, new String(body, UTF_8));
+        assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    @Test
+    void signChunkedPutRequestWithStreamingChunks() throws Exception {
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "PUT", server.url("/object").toString());
+        byte[] payload = largePayload();
+        BasicHttpEntity httpEntity = new BasicHttpEntity();
+        httpEntity.setContentType("application/octet-stream");
+        httpEntity.setChunked(true);
+        httpEntity.setContent(new ByteArrayInputStream(payload));
+        request.setEntity(httpEntity);
+
+        try (CloseableHttpClient chunkedClient = signingClient(STREAMING_CHUNKS)) {
+            chunkedClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertEquals("STREAMING-AWS4-HMAC-SHA256-PAYLOAD", recorded.getHeader("x-amz-content-sha256"));
+        assertEquals("aws-chunked", recorded.getHeader("Content-Encoding"));
+        assertEquals(Integer.toString(payload.length), recorded.getHeader("x-amz-decoded-content-length"));
+        assertEquals(Integer.toString(body.length), recorded.getHeader("Content-Length"));
+        assertNull(recorded.getHeader("Transfer-Encoding"));
+        assertArrayEquals(payload, SignatureVerifier.decodeChunkedPayload(recorded, body));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    private static byte[] largePayload() {
+        byte[] payload = new byte[ChunkSigner.MIN_CHUNK_SIZE * 2 + ChunkSigner.MIN_CHUNK_SIZE / 2];
+        new Random(0).nextBytes(payload);
+        return payload;
+    }
+
+    private void assertFileSigned(Path directory, SigningOptions options) throws Exception {
+        byte[] payload = largePayload();
+        Path file = Files.write(directory.resolve("payload"), payload);
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                "POST", server.url("/query?a=b").toString());
+        request.setEntity(new FileEntity(file.toFile(), ContentType.APPLICATION_OCTET_STREAM));
+
+        try (CloseableHttpClient signingClient = signingClient(options)) {
+            signingClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertArrayEquals(payload, body);
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    private void assertGzipSigned(HttpEntityEnclosingRequest request, byte[] payload) throws Exception {
+        try (CloseableHttpClient gzipClient = signingClient(GZIP_PAYLOAD)) {
+            gzipClient.execute(host, request);
+        }
+        RecordedRequest recorded = server.takeRequest();
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertArrayEquals(payload, SignatureVerifier.gunzip(body));
+        assertEquals("gzip", recorded.getHeader("Content-Encoding"));
+        assertEquals(Integer.toString(body.length), recorded.getHeader("Content-Length"));
+        assertNull(recorded.getHeader("Transfer-Encoding"));
+        assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+        assertNull(recorded.getHeader("x-amz-checksum-sha256"));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    private static String signedHeaders(RecordedRequest recorded) {
+        String authorization = recorded.getHeader("Authorization");
+        int start = authorization.indexOf("SignedHeaders=");
+        return authorization.substring(start, authorization.indexOf(',', start));
+    }
+
+    private static CloseableHttpClient signingClient(SigningOptions options) {
+        return HttpClients.custom()
+                .addInterceptorLast(new AwsRequestSigningApacheInterceptor(
+                        SignatureVerifier.SERVICE,
+                        AwsV4HttpSigner.create(),
+                        SignatureVerifier.CREDENTIALS,
+                        SignatureVerifier.REGION,
+                        options))
+                .build();
+    }
 }
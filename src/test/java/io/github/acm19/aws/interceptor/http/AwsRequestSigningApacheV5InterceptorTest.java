@@ -8,44 +8,116 @@
 
 package io.github.acm19.aws.interceptor.http;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Security;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPOutputStream;
+import org.apache.hc.client5.http.async.AsyncExecChainHandler;
 import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
 import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.classic.methods.HttpPut;
+import org.apache.hc.client5.http.impl.ChainElement;
 import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
 import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.io.entity.BasicHttpEntity;
 import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.FileEntity;
 import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.message.BasicHttpResponse;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
 import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityConsumer;
 import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityProducer;
+import org.apache.hc.core5.http.nio.support.AsyncRequestBuilder;
 import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
 import org.apache.hc.core5.http.nio.support.BasicResponseConsumer;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.http.auth.aws.signer.RegionSet;
 import software.amazon.awssdk.regions.Region;
 
 class AwsRequestSigningApacheV5InterceptorTest {
+    private static final int BATCH_SIZE = 3;
+    private static final SigningOptions STREAMING_PAYLOAD_HASH = SigningOptions.builder()
+            .streamingPayloadHash(true)
+            .build();
+    private static final SigningOptions SPILL_TO_DISK = SigningOptions.builder()
+            .payloadSpillThreshold(1)
+            .build();
+    private static final SigningOptions STREAMING_CHUNKS = SigningOptions.builder()
+            .streamingChunkSize(ChunkSigner.MIN_CHUNK_SIZE)
+            .build();
+    private static final SigningOptions UNSIGNED_POST_PAYLOAD = SigningOptions.builder()
+            .unsignedPayloadPolicy(UnsignedPayloadPolicy.method("POST"))
+            .build();
+    private static final SigningOptions VERIFY_PAYLOAD_SHA256 = SigningOptions.builder()
+            .payloadSha256VerificationRate(1)
+            .build();
+    private static final SigningOptions GZIP_PAYLOAD = SigningOptions.builder()
+            .gzipPayload(true)
+            .build();
+    private static final SigningOptions NATIVE_SIGNING = SigningOptions.builder()
+            .nativeSigning(true)
+            .build();
+    private static final SigningOptions GLOBAL_REGION_SET = SigningOptions.builder()
+            .regionSet(RegionSet.GLOBAL)
+            .build();
+    private static final SigningOptions SIGNATURE_MEMOIZATION = SigningOptions.builder()
+            .signatureMemoization(true)
+            .build();
+    private static final SigningOptions PRESIGNED_URLS = SigningOptions.builder()
+            .presignExpiration(Duration.ofHours(1))
+            .build();
+    private static final SigningOptions SUN_DIGESTS = SigningOptions.builder()
+            .nativeSigning(true)
+            .digestProvider(Security.getProvider("SUN"))
+            .build();
+
     private MockWebServer server;
     private AwsRequestSigningApacheV5Interceptor interceptor;
 
@@ -165,6 +237,395 @@ class AwsRequestSigningApacheV5InterceptorTest {
                     Long.toString(entity.getContentLength()),
                     recorded.getHeader("signedContentLength"));
         }
+
+        @Test
+        void signPostRequestWithStreamingPayloadHash() throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            String payload = "{\"test\": \"val\"}";
+            final byte[] payloadData = payload.getBytes(UTF_8);
+            request.setEntity(new BasicHttpEntity(
+                    new ByteArrayInputStream(payloadData),
+                    payloadData.length,
+                    ContentType.APPLICATION_JSON));
+
+            try (CloseableHttpClient streamingClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(STREAMING_PAYLOAD_HASH))
+                    .build()) {
+                streamingClient.execute(request, response -> "ignored");
+            }
+            RecordedRequest recorded = server.takeRequest();
+            byte[] body = recorded.getBody().readByteArray();
+
+            assertEquals(payload, new String(body, UTF_8));
+            assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+            assertEquals(
+                    SignatureVerifier.expectedAuthorization(recorded, body),
+                    recorded.getHeader("Authorization"));
+        }
+
+        @Test
+        void signRepeatablePostRequestWithStreamingPayloadHash() throws Exception {
+            String data = "I'm an entity";
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            request.setEntity(new StringEntity(data));
+
+            try (CloseableHttpClient streamingClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(STREAMING_PAYLOAD_HASH))
+                    .build()) {
+                streamingClient.execute(request, response -> "ignored");
+            }
+            RecordedRequest recorded = server.takeRequest();
+            byte[] body = recorded.getBody().readByteArray();
+
+            assertEquals(data, new String(body, UTF_8));
+            assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+            assertEquals(
+                    SignatureVerifier.expectedAuthorization(recorded, body),
+                    recorded.getHeader("Authorization"));
+        }
+
+        @Test
+        void signPostRequestSpillingPayloadToDisk() throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            String payload = "{\"test\": \"val\"}";
+            final byte[] payloadData = payload.getBytes(UTF_8);
+            request.setEntity(new BasicHttpEntity(
+                    new ByteArrayInputStream(payloadData),
+                    payloadData.length,
+                    ContentType.APPLICATION_JSON));
+
+            try (CloseableHttpClient spillingClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(SPILL_TO_DISK))
+                    .build()) {
+                spillingClient.execute(request, response -> "ignored");
+            }
+            RecordedRequest recorded = server.takeRequest();
+            byte[] body = recorded.getBody().readByteArray();
+
+            assertEquals(payload, new String(body, UTF_8));
+            assertEquals(
+                    SignatureVerifier.expectedAuthorization(recorded, body),
+                    recorded.getHeader("Authorization"));
+        }
+
+        @Test
+        void signHttpsPostRequestWithUnsignedPayload() throws Exception {
+            HttpPost request = new HttpPost("https://" + server.getHostName() + ":" + server.getPort() + "/query?a=b");
+            request.setEntity(new StringEntity("{\"test\": \"val\"}", ContentType.APPLICATION_JSON));
+            AtomicReference<ClassicHttpRequest> signed = new AtomicReference<>();
+
+            // the request is captured once signed, before a connection is opened
+            try (CloseableHttpClient unsignedClient = HttpClients.custom()
+                    .addExecInterceptorBefore(ChainElement.CONNECT.name(), "aws-signing-interceptor",
+                                              signingInterceptor(UNSIGNED_POST_PAYLOAD))
+                    .addExecInterceptorAfter("aws-signing-interceptor", "capture", (r, scope, chain) -> {
+                        signed.set(r);
+                        return new BasicClassicHttpResponse(HttpStatus.SC_OK);
+                    })
+                    .build()) {
+                unsignedClient.execute(request, response -> "ignored");
+            }
+
+            assertEquals("UNSIGNED-PAYLOAD", signed.get().getFirstHeader("x-amz-content-sha256").getValue());
+            assertTrue(signed.get().containsHeader("Authorization"));
+        }
+
+        @Test
+        void signHttpPostRequestPayloadDespiteUnsignedPayloadPolicy() throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            String payload = "{\"test\": \"val\"}";
+            final byte[] payloadData = payload.getBytes(UTF_8);
+            request.setEntity(new BasicHttpEntity(
+                    new ByteArrayInputStream(payloadData),
+                    payloadData.length,
+                    ContentType.APPLICATION_JSON));
+
+            try (CloseableHttpClient unsignedClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(UNSIGNED_POST_PAYLOAD))
+                    .build()) {
+                unsignedClient.execute(request, response -> "ignored");
+            }
+            RecordedRequest recorded = server.takeRequest();
+            byte[] body = recorded.getBody().readByteArray();
+
+            assertEquals(payload, new String(body, UTF_8));
+            assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+            assertEquals(
+                    SignatureVerifier.expectedAuthorization(recorded, body),
+                    recorded.getHeader("Authorization"));
+        }
+
+        @Test
+        void signPostRequestWithPrecomputedPayloadSha256() throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            String payload = "{\"test\": \"val\"}";
+            final byte[] payloadData = payload.getBytes(UTF_8);
+            request.setEntity(new BasicHttpEntity(
+                    new ByteArrayInputStream(payloadData),
+                    payloadData.length,
+                    ContentType.APPLICATION_JSON));
+            HttpClientContext context = HttpClientContext.create();
+            context.setAttribute(SigningOptions.PAYLOAD_SHA256_ATTRIBUTE, SignatureVerifier.sha256Hex(payloadData));
+
+            try (CloseableHttpClient precomputedClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(VERIFY_PAYLOAD_SHA256))
+                    .build()) {
+                precomputedClient.execute(request, context, response -> "ignored");
+            }
+            RecordedRequest recorded = server.takeRequest();
+            byte[] body = recorded.getBody().readByteArray();
+
+            assertEquals(payload, new String(body, UTF_8));
+            assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+            assertEquals(
+                    SignatureVerifier.expectedAuthorization(recorded, body),
+                    recorded.getHeader("Authorization"));
+            assertNull(recorded.getHeader("x-amz-checksum-sha256"));
+        }
+
+        @Test
+        void rejectPostRequestWithMismatchingPayloadSha256() throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            request.setEntity(new StringEntity("I'm an entity"));
+            request.addHeader("x-amz-content-sha256", SignatureVerifier.sha256Hex(new byte[0]));
+
+            try (CloseableHttpClient verifyingClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(VERIFY_PAYLOAD_SHA256))
+                    .build()) {
+                assertThrows(IOException.class, () -> verifyingClient.execute(request, response -> "ignored"));
+            }
+        }
+
+        @Test
+        void signUnknownLengthPutRequestWithStreamingChunks() throws Exception {
+            HttpPut request = new HttpPut(server.url("/object").toString());
+            byte[] payload = largePayload();
+            request.setEntity(new BasicHttpEntity(new ByteArrayInputStream(payload),
+                                                  ContentType.APPLICATION_OCTET_STREAM));
+
+            assertSignedChunks(request, payload);
+        }
+
+        @Test
+        void signChunkedPutRequestWithStreamingChunks() throws Exception {
+            HttpPut request = new HttpPut(server.url("/object").toString());
+            byte[] payload = largePayload();
+            request.setEntity(new BasicHttpEntity(
+                    new ByteArrayInputStream(payload),
+                    payload.length,
+                    ContentType.APPLICATION_OCTET_STREAM,
+                    null,
+                    true));
+
+            assertSignedChunks(request, payload);
+        }
+
+        @Test
+        void signByteArrayPostRequestInPlace() throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            byte[] payload = "{\"test\": \"val\"}".getBytes(UTF_8);
+            request.setEntity(new ByteArrayEntity(payload, ContentType.APPLICATION_JSON));
+
+            assertSigned(request, payload, SigningOptions.defaults());
+        }
+
+        @Test
+        void signFilePostRequestInPlace(@TempDir Path directory) throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            byte[] payload = largePayload();
+            Path file = Files.write(directory.resolve("payload"), payload);
+            request.setEntity(new FileEntity(file.toFile(), ContentType.APPLICATION_OCTET_STREAM));
+
+            assertSigned(request, payload, SigningOptions.defaults());
+        }
+
+        @Test
+        void signFilePostRequestWithStreamingPayloadHash(@TempDir Path directory) throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            byte[] payload = largePayload();
+            Path file = Files.write(directory.resolve("payload"), payload);
+            request.setEntity(new FileEntity(file.toFile(), ContentType.APPLICATION_OCTET_STREAM));
+
+            assertSigned(request, payload, STREAMING_PAYLOAD_HASH);
+        }
+
+        @Test
+        void signPostRequestWithGzipPayload() throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            byte[] payload = largePayload();
+            request.setEntity(new BasicHttpEntity(
+                    new ByteArrayInputStream(payload),
+                    -1,
+                    ContentType.APPLICATION_OCTET_STREAM,
+                    null,
+                    true));
+
+            try (CloseableHttpClient gzipClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(GZIP_PAYLOAD))
+                    .build()) {
+                gzipClient.execute(request, response -> "ignored");
+            }
+            assertGzipSigned(server.takeRequest(), payload);
+        }
+
+        @Test
+        void signPostRequestNatively() throws Exception {
+            HttpPost request = new HttpPost(server.url("/path/./to/../resource?b=2&a=x%20y").toString());
+            byte[] payload = largePayload();
+            request.setEntity(new BasicHttpEntity(
+                    new ByteArrayInputStream(payload),
+                    payload.length,
+                    ContentType.APPLICATION_OCTET_STREAM));
+
+            assertSigned(request, payload, NATIVE_SIGNING);
+        }
+
+        @Test
+        void signPostRequestWithDigestProvider() throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            byte[] payload = largePayload();
+            request.setEntity(new ByteArrayEntity(payload, ContentType.APPLICATION_OCTET_STREAM));
+
+            assertSigned(request, payload, SUN_DIGESTS);
+        }
+
+        @Test
+        void signPostRequestWithSigV4a() throws Exception {
+            HttpPost request = new HttpPost(server.url("/query?a=b").toString());
+            byte[] payload = largePayload();
+            request.setEntity(new ByteArrayEntity(payload, ContentType.APPLICATION_OCTET_STREAM));
+
+            try (CloseableHttpClient sigV4aClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(GLOBAL_REGION_SET))
+                    .build()) {
+                sigV4aClient.execute(request, response -> "ignored");
+            }
+            RecordedRequest recorded = server.takeRequest();
+
+            assertArrayEquals(payload, recorded.getBody().readByteArray());
+            assertEquals("*", recorded.getHeader("X-Amz-Region-Set"));
+            assertTrue(recorded.getHeader("Authorization").startsWith("AWS4-ECDSA-P256-SHA256 Credential="));
+            assertTrue(SignatureVerifier.verifiesSigV4a(recorded));
+        }
+
+        @Test
+        void signRequestsAheadOfTime() throws Exception {
+            AtomicInteger resolutions = new AtomicInteger();
+            AwsRequestSigningApacheV5Interceptor batchInterceptor = new AwsRequestSigningApacheV5Interceptor(
+                    SignatureVerifier.SERVICE,
+                    AwsV4HttpSigner.create(),
+                    () -> {
+                        resolutions.incrementAndGet();
+                        return SignatureVerifier.CREDENTIALS.resolveCredentials();
+                    },
+                    SignatureVerifier.REGION,
+                    NATIVE_SIGNING);
+            List<HttpPost> requests = new ArrayList<>();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                HttpPost request = new HttpPost(server.url("/index/_doc/" + i).toString());
+                request.setEntity(new StringEntity("{\"id\": " + i + "}", ContentType.APPLICATION_JSON));
+                requests.add(request);
+                server.enqueue(new MockResponse());
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                batchInterceptor.signAll(requests, executor);
+            } finally {
+                executor.shutdown();
+            }
+            try (CloseableHttpClient batchClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", batchInterceptor)
+                    .build()) {
+                for (HttpPost request : requests) {
+                    batchClient.execute(request, response -> "ignored");
+                }
+            }
+
+            assertEquals(1, resolutions.get());
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                RecordedRequest recorded = server.takeRequest();
+                byte[] body = recorded.getBody().readByteArray();
+                assertEquals(
+                        SignatureVerifier.expectedAuthorization(recorded, body),
+                        recorded.getHeader("Authorization"));
+            }
+        }
+
+        @Test
+        void signGetRequestsWithMemoizedSignatures() throws Exception {
+            server.enqueue(new MockResponse());
+            try (CloseableHttpClient memoizingClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(SIGNATURE_MEMOIZATION))
+                    .build()) {
+                for (int i = 0; i < 2; i++) {
+                    memoizingClient.execute(new HttpGet(server.url("/_cluster/health").toString()),
+                                            response -> "ignored");
+                }
+            }
+
+            for (int i = 0; i < 2; i++) {
+                RecordedRequest recorded = server.takeRequest();
+                assertEquals(
+                        SignatureVerifier.expectedAuthorization(recorded, new byte[0]),
+                        recorded.getHeader("Authorization"));
+            }
+        }
+
+        @Test
+        void signGetRequestWithReusedPresignedUrl() throws Exception {
+            server.enqueue(new MockResponse());
+            try (CloseableHttpClient presigningClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(PRESIGNED_URLS))
+                    .build()) {
+                for (int i = 0; i < 2; i++) {
+                    HttpGet request = new HttpGet(server.url("/status?a=b").toString());
+                    request.addHeader("foo", "bar");
+                    presigningClient.execute(request, response -> "ignored");
+                }
+            }
+            RecordedRequest recorded = server.takeRequest();
+
+            assertNull(recorded.getHeader("Authorization"));
+            assertTrue(recorded.getPath().startsWith("/status?a=b&"));
+            assertEquals(SignatureVerifier.expectedPresignedPath(recorded), recorded.getPath());
+            assertEquals(recorded.getPath(), server.takeRequest().getPath());
+        }
+
+        private void assertSigned(HttpPost request, byte[] payload, SigningOptions options) throws Exception {
+            try (CloseableHttpClient signingClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(options))
+                    .build()) {
+                signingClient.execute(request, response -> "ignored");
+            }
+            RecordedRequest recorded = server.takeRequest();
+            byte[] body = recorded.getBody().readByteArray();
+
+            assertArrayEquals(payload, body);
+            assertEquals(
+                    SignatureVerifier.expectedAuthorization(recorded, body),
+                    recorded.getHeader("Authorization"));
+        }
+
+        private void assertSignedChunks(HttpPut request, byte[] payload) throws Exception {
+            try (CloseableHttpClient chunkedClient = HttpClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(STREAMING_CHUNKS))
+                    .build()) {
+                chunkedClient.execute(request, response -> "ignored");
+            }
+            RecordedRequest recorded = server.takeRequest();
+            byte[] body = recorded.getBody().readByteArray();
+
+            assertEquals("STREAMING-AWS4-HMAC-SHA256-PAYLOAD", recorded.getHeader("x-amz-content-sha256"));
+            assertEquals("aws-chunked", recorded.getHeader("Content-Encoding"));
+            assertEquals(Integer.toString(payload.length), recorded.getHeader("x-amz-decoded-content-length"));
+            assertEquals(Integer.toString(body.length), recorded.getHeader("Content-Length"));
+            assertNull(recorded.getHeader("Transfer-Encoding"));
+            assertArrayEquals(payload, SignatureVerifier.decodeChunkedPayload(recorded, body));
+            assertEquals(
+                    SignatureVerifier.expectedAuthorization(recorded, body),
+                    recorded.getHeader("Authorization"));
+        }
     }
 
     @Nested
@@ -271,5 +732,347 @@ class AwsRequestSigningApacheV5InterceptorTest {
                     recorded.getHeader("signedContentLength"));
             assertEquals(payload, recorded.getBody().readUtf8());
         }
+
+        @Test
+        void signSimpleHttpPostRequestWithStreamingPayloadHash() throws Exception {
+            String payload = "{\"test\": \"val\"}";
+            SimpleHttpRequest request = SimpleRequestBuilder.post(server.url("/query?a=b").toString())
+                    .setBody(payload, ContentType.APPLICATION_JSON)
+                    .build();
+
+            try (CloseableHttpAsyncClient streamingClient = HttpAsyncClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(STREAMING_PAYLOAD_HASH))
+                    .build()) {
+                streamingClient.start();
+                streamingClient.execute(request, null);
+                RecordedRequest recorded = server.takeRequest(TEST_SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                byte[] body = recorded.getBody().readByteArray();
+
+                assertEquals(payload, new String(body, UTF_8));
+                assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+                assertEquals(
+                        SignatureVerifier.expectedAuthorization(recorded, body),
+                        recorded.getHeader("Authorization"));
+            }
+        }
+
+        @Test
+        void signEntityProducerRequest() throws Exception {
+            byte[] payload = largePayload();
+
+            try (CloseableHttpAsyncClient signingClient = HttpAsyncClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(SPILL_TO_DISK))
+                    .build()) {
+                signingClient.start();
+                signingClient.execute(
+                        AsyncRequestBuilder.put(server.url("/object").toString())
+                                .setEntity(AsyncEntityProducers.create(payload, ContentType.APPLICATION_OCTET_STREAM))
+                                .build(),
+                        new BasicResponseConsumer<>(new BasicAsyncEntityConsumer()),
+                        null);
+                RecordedRequest recorded = server.takeRequest(TEST_SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                byte[] body = recorded.getBody().readByteArray();
+
+                assertArrayEquals(payload, body);
+                assertEquals(
+                        SignatureVerifier.expectedAuthorization(recorded, body),
+                        recorded.getHeader("Authorization"));
+            }
+        }
+
+        @Test
+        void signEntityProducerRequestWithGzipPayload() throws Exception {
+            byte[] payload = largePayload();
+
+            try (CloseableHttpAsyncClient gzipClient = HttpAsyncClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(GZIP_PAYLOAD))
+                    .build()) {
+                gzipClient.start();
+                gzipClient.execute(
+                        AsyncRequestBuilder.put(server.url("/object").toString())
+                                .setEntity(AsyncEntityProducers.create(payload, ContentType.APPLICATION_OCTET_STREAM))
+                                .build(),
+                        new BasicResponseConsumer<>(new BasicAsyncEntityConsumer()),
+                        null);
+                assertGzipSigned(server.takeRequest(TEST_SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS), payload);
+            }
+        }
+
+        @Test
+        void signEntityProducerRequestNatively() throws Exception {
+            byte[] payload = largePayload();
+
+            try (CloseableHttpAsyncClient nativeClient = HttpAsyncClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(NATIVE_SIGNING))
+                    .build()) {
+                nativeClient.start();
+                nativeClient.execute(
+                        AsyncRequestBuilder.put(server.url("/object").toString())
+                                .setEntity(AsyncEntityProducers.create(payload, ContentType.APPLICATION_OCTET_STREAM))
+                                .build(),
+                        new BasicResponseConsumer<>(new BasicAsyncEntityConsumer()),
+                        null);
+                RecordedRequest recorded = server.takeRequest(TEST_SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                byte[] body = recorded.getBody().readByteArray();
+
+                assertArrayEquals(payload, body);
+                assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+                assertEquals(
+                        SignatureVerifier.expectedAuthorization(recorded, body),
+                        recorded.getHeader("Authorization"));
+            }
+        }
+
+        @Test
+        void signRequestOnceCredentialsAreRefreshed() throws Exception {
+            List<String> resolvingThreads = Collections.synchronizedList(new ArrayList<>());
+            AwsRequestSigningApacheV5Interceptor refreshingInterceptor = new AwsRequestSigningApacheV5Interceptor(
+                    SignatureVerifier.SERVICE,
+                    AwsV4HttpSigner.create(),
+                    () -> {
+                        resolvingThreads.add(Thread.currentThread().getName());
+                        return SignatureVerifier.CREDENTIALS.resolveCredentials();
+                    },
+                    SignatureVerifier.REGION,
+                    SigningOptions.builder()
+                            .nativeSigning(true)
+                            .credentialRefreshAhead(Duration.ofHours(1))
+                            .build());
+
+            try (CloseableHttpAsyncClient refreshingClient = HttpAsyncClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", refreshingInterceptor)
+                    .build()) {
+                refreshingClient.start();
+                refreshingClient.execute(
+                        AsyncRequestBuilder.get(server.url("/status").toString()).build(),
+                        new BasicResponseConsumer<>(new BasicAsyncEntityConsumer()),
+                        null);
+                RecordedRequest recorded = server.takeRequest(TEST_SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+                assertEquals(
+                        SignatureVerifier.expectedAuthorization(recorded, new byte[0]),
+                        recorded.getHeader("Authorization"));
+                assertEquals(Collections.singletonList("aws-credentials-refresh"), resolvingThreads);
+            }
+        }
+
+        @Test
+        void signRequestWithPresignedUrl() throws Exception {
+            try (CloseableHttpAsyncClient presigningClient = HttpAsyncClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(PRESIGNED_URLS))
+                    .build()) {
+                presigningClient.start();
+                presigningClient.execute(
+                        AsyncRequestBuilder.get(server.url("/status").toString()).build(),
+                        new BasicResponseConsumer<>(new BasicAsyncEntityConsumer()),
+                        null);
+                RecordedRequest recorded = server.takeRequest(TEST_SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+                assertNull(recorded.getHeader("Authorization"));
+                assertEquals(SignatureVerifier.expectedPresignedPath(recorded), recorded.getPath());
+            }
+        }
+
+        @Test
+        void signDeferredEntityProducerRequestWithStreamingPayloadHash() throws Exception {
+            String payload = "{\"test\": \"val\"}";
+            AsyncEntityProducer entityProducer = new DeferredEntityProducer(payload.getBytes(UTF_8));
+
+            try (CloseableHttpAsyncClient streamingClient = HttpAsyncClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(STREAMING_PAYLOAD_HASH))
+                    .build()) {
+                streamingClient.start();
+                streamingClient.execute(
+                        AsyncRequestBuilder.post(server.url("/query?a=b").toString())
+                                .setEntity(entityProducer)
+                                .build(),
+                        new BasicResponseConsumer<>(new BasicAsyncEntityConsumer()),
+                        null);
+                RecordedRequest recorded = server.takeRequest(TEST_SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                byte[] body = recorded.getBody().readByteArray();
+
+                assertEquals(payload, new String(body, UTF_8));
+                assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+                assertEquals(
+                        SignatureVerifier.expectedAuthorization(recorded, body),
+                        recorded.getHeader("Authorization"));
+            }
+        }
+
+        @Test
+        void signEntityProducerRequestWithPrecomputedPayloadSha256() throws Exception {
+            byte[] payload = largePayload();
+
+            try (CloseableHttpAsyncClient verifyingClient = HttpAsyncClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(VERIFY_PAYLOAD_SHA256))
+                    .build()) {
+                verifyingClient.start();
+                verifyingClient.execute(
+                        AsyncRequestBuilder.put(server.url("/object").toString())
+                                .addHeader("x-amz-content-sha256", SignatureVerifier.sha256Hex(payload))
+                                .setEntity(new DeferredEntityProducer(payload))
+                                .build(),
+                        new BasicResponseConsumer<>(new BasicAsyncEntityConsumer()),
+                        null);
+                RecordedRequest recorded = server.takeRequest(TEST_SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                byte[] body = recorded.getBody().readByteArray();
+
+                assertArrayEquals(payload, body);
+                assertEquals(
+                        SignatureVerifier.expectedAuthorization(recorded, body),
+                        recorded.getHeader("Authorization"));
+                assertNull(recorded.getHeader("x-amz-checksum-sha256"));
+            }
+        }
+
+        @Test
+        void signHttpsEntityProducerRequestWithUnsignedPayload() throws Exception {
+            AtomicReference<HttpRequest> signed = new AtomicReference<>();
+            AsyncExecChainHandler capture = (request, entityProducer, scope, chain, callback) -> {
+                signed.set(request);
+                callback.handleResponse(new BasicHttpResponse(HttpStatus.SC_OK), null);
+                callback.completed();
+            };
+
+            // the request is captured once signed, before a connection is opened
+            try (CloseableHttpAsyncClient unsignedClient = HttpAsyncClients.custom()
+                    .addExecInterceptorBefore(ChainElement.CONNECT.name(), "aws-signing-interceptor",
+                                              signingInterceptor(UNSIGNED_POST_PAYLOAD))
+                    .addExecInterceptorAfter("aws-signing-interceptor", "capture", capture)
+                    .build()) {
+                unsignedClient.start();
+                unsignedClient.execute(
+                        AsyncRequestBuilder.post(
+                                "https://" + server.getHostName() + ":" + server.getPort() + "/query?a=b")
+                                .setEntity("{\"test\": \"val\"}", ContentType.APPLICATION_JSON)
+                                .build(),
+                        new BasicResponseConsumer<>(new BasicAsyncEntityConsumer()),
+                        null).get(TEST_SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+
+            assertEquals("UNSIGNED-PAYLOAD", signed.get().getFirstHeader("x-amz-content-sha256").getValue());
+            assertTrue(signed.get().containsHeader("Authorization"));
+        }
+
+        @Test
+        void signHttpEntityProducerRequestPayloadDespiteUnsignedPayloadPolicy() throws Exception {
+            String payload = "{\"test\": \"val\"}";
+
+            try (CloseableHttpAsyncClient unsignedClient = HttpAsyncClients.custom()
+                    .addExecInterceptorLast("aws-signing-interceptor", signingInterceptor(UNSIGNED_POST_PAYLOAD))
+                    .build()) {
+                unsignedClient.start();
+                unsignedClient.execute(
+                        AsyncRequestBuilder.post(server.url("/query?a=b").toString())
+                                .setEntity(payload, ContentType.APPLICATION_JSON)
+                                .build(),
+                        new BasicResponseConsumer<>(new BasicAsyncEntityConsumer()),
+                        null);
+                RecordedRequest recorded = server.takeRequest(TEST_SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                byte[] body = recorded.getBody().readByteArray();
+
+                assertEquals(payload, new String(body, UTF_8));
+                assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+                assertEquals(
+                        SignatureVerifier.expectedAuthorization(recorded, body),
+                        recorded.getHeader("Authorization"));
+            }
+        }
+    }
+
+    private static byte[] largePayload() {
+        byte[] payload = new byte[ChunkSigner.MIN_CHUNK_SIZE * 2 + ChunkSigner.MIN_CHUNK_SIZE / 2];
+        new Random(0).nextBytes(payload);
+        return payload;
+    }
+
+    /**
+     * A non-repeatable producer of unknown length whose content only becomes
+     * available on another thread after it is first asked for it.
+     */
+    private static final class DeferredEntityProducer implements AsyncEntityProducer {
+        private final byte[] payload;
+        private final AtomicBoolean requested = new AtomicBoolean();
+        private volatile boolean available;
+
+        DeferredEntityProducer(byte[] payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public String getContentType() {
+            return ContentType.APPLICATION_JSON.toString();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return null;
+        }
+
+        @Override
+        public boolean isChunked() {
+            return true;
+        }
+
+        @Override
+        public Set<String> getTrailerNames() {
+            return null;
+        }
+
+        @Override
+        public int available() {
+            return available ? payload.length : 0;
+        }
+
+        @Override
+        public void produce(DataStreamChannel channel) throws IOException {
+            if (available) {
+                channel.write(ByteBuffer.wrap(payload));
+                channel.endStream();
+            } else if (requested.compareAndSet(false, true)) {
+                new Thread(() -> {
+                    available = true;
+                    channel.requestOutput();
+                }).start();
+            }
+        }
+
+        @Override
+        public void failed(Exception cause) {
+        }
+
+        @Override
+        public void releaseResources() {
+        }
+    }
+
+    private static void assertGzipSigned(RecordedRequest recorded, byte[] payload) throws Exception {
+        byte[] body = recorded.getBody().readByteArray();
+
+        assertArrayEquals(payload, SignatureVerifier.gunzip(body));
+        assertEquals("gzip", recorded.getHeader("Content-Encoding"));
+        assertEquals(Integer.toString(body.length), recorded.getHeader("Content-Length"));
+        assertEquals(SignatureVerifier.sha256Hex(body), recorded.getHeader("x-amz-content-sha256"));
+        assertNull(recorded.getHeader("x-amz-checksum-sha256"));
+        assertEquals(SignatureVerifier.expectedAuthorization(recorded, body), recorded.getHeader("Authorization"));
+    }
+
+    private static AwsRequestSigningApacheV5Interceptor signingInterceptor(SigningOptions options) {
+        return new AwsRequestSigningApacheV5Interceptor(
+                SignatureVerifier.SERVICE,
+                AwsV4HttpSigner.create(),
+                SignatureVerifier.CREDENTIALS,
+                SignatureVerifier.REGION,
+                options);
     }
 }
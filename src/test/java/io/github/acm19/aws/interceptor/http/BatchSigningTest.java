@@ -0,0 +1,32 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BatchSigningTest {
+    @Test
+    void remembersSignedRequestsByIdentity() throws Exception {
+        BatchSigning batchSigning = new BatchSigning();
+        List<String> request = new ArrayList<>(Collections.singletonList("POST /index/_doc/1"));
+        List<String> equalRequest = new ArrayList<>(request);
+
+        batchSigning.signAll(Collections.singletonList(request), Runnable::run, signed -> { });
+
+        assertFalse(batchSigning.consume(equalRequest));
+        assertTrue(batchSigning.consume(request));
+        assertFalse(batchSigning.consume(request));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import javax.crypto.Mac;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.utils.BinaryUtils;
+
+class DigestsTest {
+    @Test
+    void hashesWithTheDefaultProviders() {
+        Digests digests = Digests.defaults();
+
+        assertEquals(Digests.EMPTY_SHA256, BinaryUtils.toHex(digests.sha256().digest()));
+        assertEquals(Digests.EMPTY_SHA256, BinaryUtils.toHex(digests.newSha256().digest()));
+        // well-known HMAC-SHA256 example
+        assertEquals("f7bc83f430538424b13298e6aa6fb143ef4d59a14946175997479dbc2d1a3cd8",
+                     BinaryUtils.toHex(digests.hmacSha256("key".getBytes(UTF_8))
+                             .doFinal("The quick brown fox jumps over the lazy dog".getBytes(UTF_8))));
+    }
+
+    @Test
+    void defaultsToThePreferredProviders() throws Exception {
+        Digests digests = Digests.of(null);
+
+        assertSame(Digests.defaults(), digests);
+        assertSame(MessageDigest.getInstance("SHA-256").getProvider(), digests.sha256Provider());
+        assertSame(Mac.getInstance("HmacSHA256").getProvider(), digests.hmacSha256Provider());
+    }
+
+    @Test
+    void reusesInstancesPerThread() {
+        Digests digests = Digests.defaults();
+        MessageDigest digest = digests.sha256();
+        digest.update("partial".getBytes(UTF_8));
+
+        assertSame(digest, digests.sha256());
+        assertEquals(Digests.EMPTY_SHA256, BinaryUtils.toHex(digests.sha256().digest()));
+        assertSame(digests.hmacSha256(new byte[1]), digests.hmacSha256(new byte[1]));
+        assertNotSame(digests.newSha256(), digests.newSha256());
+    }
+
+    @Test
+    void takesMissingAlgorithmsFromThePreferredProvider() throws Exception {
+        // SUN provides SHA-256 but not HmacSHA256
+        Provider sun = Security.getProvider("SUN");
+        Digests digests = Digests.of(sun);
+
+        assertSame(sun, digests.sha256Provider());
+        assertSame(Mac.getInstance("HmacSHA256").getProvider(), digests.hmacSha256Provider());
+        assertEquals(Digests.EMPTY_SHA256, BinaryUtils.toHex(digests.sha256().digest()));
+    }
+
+    @Test
+    void rejectsProviderOfNeitherAlgorithm() {
+        Provider none = Security.getProvider("SunEC");
+
+        assertThrows(IllegalArgumentException.class, () -> SigningOptions.builder().digestProvider(none));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.junit.jupiter.api.Test;
+
+class HeaderMultimapTest {
+    @Test
+    void keepsAllValuesOfRepeatedHeaders() {
+        HeaderMultimap headers = headers(
+                new BasicHeader("X-Foo", "1"),
+                new BasicHeader("accept", "a"),
+                new BasicHeader("x-foo", "2"),
+                new BasicHeader("Host", "example.com"),
+                new BasicHeader("Content-Length", "0"));
+
+        assertEquals(Arrays.asList("accept", "X-Foo"), new ArrayList<>(headers.keySet()));
+        assertEquals(Arrays.asList("1", "2"), headers.get("X-FOO"));
+        assertNull(headers.get("host"));
+        assertFalse(headers.containsKey("content-length"));
+    }
+
+    @Test
+    void setsAndRemovesHeaders() {
+        HeaderMultimap headers = headers(
+                new BasicHeader("b", "1"),
+                new BasicHeader("b", "2"),
+                new BasicHeader("d", "3"));
+
+        headers.set("B", "4");
+        headers.set("a", "5");
+        headers.set("c", "6");
+        headers.set("e", "7");
+        headers.removeAll("D");
+
+        Map<String, List<String>> expected = new LinkedHashMap<>();
+        expected.put("a", Collections.singletonList("5"));
+        expected.put("B", Collections.singletonList("4"));
+        expected.put("c", Collections.singletonList("6"));
+        expected.put("e", Collections.singletonList("7"));
+        assertEquals(expected, headers);
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(headers.keySet()));
+    }
+
+    @Test
+    void updatesOnlyChangedHeaders() {
+        Header kept = new BasicHeader("Accept", "a");
+        HttpRequest request = new BasicHttpRequest("GET", "/");
+        request.addHeader(kept);
+        request.addHeader("X-Foo", "1");
+        request.addHeader("Content-Length", "0");
+        Map<String, List<String>> signed = new LinkedHashMap<>();
+        signed.put("accept", Collections.singletonList("a"));
+        signed.put("x-foo", Arrays.asList("1", "2"));
+        signed.put("Authorization", Collections.singletonList("signature"));
+
+        HeaderMultimap.update(signed, request::getHeaders, Header::getValue, request::removeHeaders,
+                              request::addHeader);
+
+        assertSame(kept, request.getFirstHeader("accept"));
+        assertArrayEquals(new String[] {"Accept: a", "x-foo: 1", "x-foo: 2", "Authorization: signature"},
+                          Arrays.stream(request.getHeaders()).map(Object::toString).toArray());
+    }
+
+    private static HeaderMultimap headers(Header... headers) {
+        return HeaderMultimap.of(headers, Header::getName, Header::getValue);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.http.auth.spi.signer.HttpSigner;
+import software.amazon.awssdk.http.auth.spi.signer.SignedRequest;
+
+class NativeV4SignerTest {
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2024-02-29T23:59:59Z"), ZoneOffset.UTC);
+    private static final byte[] PAYLOAD = "{\"test\": \"val\"}".getBytes(UTF_8);
+    private static final AwsCredentialsProvider SESSION_CREDENTIALS = StaticCredentialsProvider.create(
+            AwsSessionCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY",
+                                         " token  with spaces "));
+
+    private static final String[] URIS = {
+        "https://example.com",
+        "https://example.com/",
+        "http://example.com:8080/path/to/resource",
+        "https://example.com:443/a/./b/../c%20d/e*~f/",
+        "https://example.com/a//b/./",
+        "https://example.com/foo-2017-02-25%2Cfoo-2017-02-26/_search?a=b",
+        "https://example.com/?b=2&a=x%20y&a=1&c&d=&=e&f=%2A~+g",
+        "https://example.com/%E2%82%AC/x?%E2%82%AC=%E2%82%AC&Z=1&z=2",
+        "https://example.com/index/_doc/a..b/.c?refresh=true&q&q=b&q=a&=x&&Z=&a=b=c",
+        "https://example.com/a/.",
+        "https://example.com/a/../b",
+    };
+
+    @Test
+    void signsLikeTheSdkSigner() throws Exception {
+        Header[] headers = {
+            new BasicHeader("Content-Type", "application/json"),
+            new BasicHeader("Foo", "  a   b  "),
+            new BasicHeader("foo", "c\td"),
+            new BasicHeader("Host", "ignored"),
+            new BasicHeader("User-Agent", "ignored"),
+            new BasicHeader("Content-Length", "0"),
+            new BasicHeader("Empty", ""),
+            new BasicHeader("X-Unicode", " caf\u00e9 \ud83d\ude00 "),
+            new BasicHeader("X-Amz-Meta-B", "2"),
+            new BasicHeader("x-amz-meta-a", "1"),
+            new BasicHeader("x-amz-meta-b", "3"),
+        };
+
+        for (String uri : URIS) {
+            assertEquals(sdkSignature("POST", uri, headers, PAYLOAD, CLOCK), nativeSignature(uri, headers), uri);
+        }
+    }
+
+    @Test
+    void leavesRequestsUnsignedWithAnonymousCredentials() {
+        AwsCredentialsProvider anonymous = AnonymousCredentialsProvider.create();
+        Map<String, String> signedHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        new NativeV4Signer(SignatureVerifier.SERVICE, SignatureVerifier.REGION, anonymous, CLOCK,
+                           new SigningKeyCache())
+                .sign("GET", URI.create(URIS[0]), new Header[0], Header::getName, Header::getValue,
+                      NativeV4Signer.contentSha256(null), signedHeaders::put);
+
+        assertEquals(1, signedHeaders.size());
+        assertEquals(NativeV4Signer.contentSha256(null), signedHeaders.get("x-amz-content-sha256"));
+    }
+
+    @Test
+    void memoizesSignaturesOfIdenticalBodilessRequestsWithinASecond() {
+        SignatureMemo signatures = new SignatureMemo();
+        Header[] headers = {new BasicHeader("Accept", "application/json")};
+        String uri = "https://example.com/_cluster/health";
+
+        Map<String, String> signedHeaders = memoizedSignature(signatures, CLOCK, "GET", uri, headers);
+        assertEquals(sdkSignature("GET", uri, headers, null, CLOCK), signedHeaders);
+        assertEquals(signedHeaders, memoizedSignature(signatures, CLOCK, "GET", uri, headers));
+        assertEquals(1, signatures.size());
+
+        Clock nextSecond = Clock.offset(CLOCK, Duration.ofSeconds(1));
+        assertEquals(sdkSignature("GET", uri, headers, null, nextSecond),
+                     memoizedSignature(signatures, nextSecond, "GET", uri, headers));
+        assertEquals(sdkSignature("HEAD", uri, headers, null, nextSecond),
+                     memoizedSignature(signatures, nextSecond, "HEAD", uri, headers));
+        memoizedSignature(signatures, nextSecond, "DELETE", uri, headers);
+        assertEquals(2, signatures.size());
+    }
+
+    @Test
+    void signsOnlyTheHeadersOfThePolicy() {
+        Header[] headers = {
+            new BasicHeader("Content-Type", "application/json"),
+            new BasicHeader("Foo", "a"),
+            new BasicHeader("foo", "b"),
+            new BasicHeader("Traceparent", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01"),
+            new BasicHeader("X-Amz-Meta-A", "1"),
+        };
+        Header[] signed = {headers[0], headers[1], headers[2]};
+        String uri = URIS[2];
+        Map<String, String> expected = sdkSignature("GET", uri, signed, null, CLOCK);
+
+        assertEquals(expected, policySignature(SignedHeaderPolicy.allow("content-type", "FOO"), uri, headers));
+        // an allowed header missing from the request
+        assertEquals(expected, policySignature(SignedHeaderPolicy.allow("Content-Type", "Foo", "Accept"), uri,
+                                               headers));
+        assertEquals(expected, policySignature(SignedHeaderPolicy.deny("traceparent", "x-amz-meta-a"), uri,
+                                               headers));
+    }
+
+    private static Map<String, String> policySignature(SignedHeaderPolicy policy, String uri, Header[] headers) {
+        Map<String, String> signedHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        SigningOptions options = SigningOptions.builder()
+                .signingClock(CLOCK)
+                .signedHeaderPolicy(policy)
+                .build();
+        new NativeV4Signer(SignatureVerifier.SERVICE, SignatureVerifier.REGION, SESSION_CREDENTIALS,
+                           new SigningKeyCache(), null, options)
+                .sign("GET", URI.create(uri), headers, Header::getName, Header::getValue,
+                      NativeV4Signer.contentSha256(null), signedHeaders::put);
+        return signedHeaders;
+    }
+
+    private static Map<String, String> memoizedSignature(SignatureMemo signatures,
+                                                         Clock clock,
+                                                         String method,
+                                                         String uri,
+                                                         Header[] headers) {
+        Map<String, String> signedHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        new NativeV4Signer(SignatureVerifier.SERVICE, SignatureVerifier.REGION, null, SESSION_CREDENTIALS, clock,
+                           new SigningKeyCache(), signatures)
+                .sign(method, URI.create(uri), headers, Header::getName, Header::getValue,
+                      NativeV4Signer.contentSha256(null), signedHeaders::put);
+        return signedHeaders;
+    }
+
+    private static Map<String, String> nativeSignature(String uri, Header[] headers) throws Exception {
+        Map<String, String> signedHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        byte[] payloadSha256 = MessageDigest.getInstance("SHA-256").digest(PAYLOAD);
+        new NativeV4Signer(SignatureVerifier.SERVICE, SignatureVerifier.REGION, SESSION_CREDENTIALS, CLOCK,
+                           new SigningKeyCache())
+                .sign("POST", URI.create(uri), headers, Header::getName, Header::getValue,
+                      NativeV4Signer.contentSha256(payloadSha256), signedHeaders::put);
+        return signedHeaders;
+    }
+
+    private static Map<String, String> sdkSignature(String method,
+                                                    String uri,
+                                                    Header[] headers,
+                                                    byte[] payload,
+                                                    Clock clock) {
+        SdkHttpFullRequest.Builder request = SdkHttpFullRequest.builder()
+                .method(SdkHttpMethod.fromValue(method))
+                .uri(URI.create(uri));
+        for (Header header : headers) {
+            if (!header.getName().equalsIgnoreCase("Host")
+                    && !(header.getName().equalsIgnoreCase("Content-Length") && "0".equals(header.getValue()))) {
+                request.appendHeader(header.getName(), header.getValue());
+            }
+        }
+        SdkHttpFullRequest sdkRequest = request.build();
+        SignedRequest signedRequest = AwsV4HttpSigner.create().sign(r -> r
+                .identity(SESSION_CREDENTIALS.resolveCredentials())
+                .request(sdkRequest)
+                .payload(payload == null ? null : () -> new ByteArrayInputStream(payload))
+                .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, SignatureVerifier.SERVICE)
+                .putProperty(AwsV4HttpSigner.REGION_NAME, SignatureVerifier.REGION.id())
+                .putProperty(HttpSigner.SIGNING_CLOCK, clock));
+
+        Map<String, String> signedHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String name : new String[] {"Authorization", "Host", "x-amz-content-sha256", "X-Amz-Date",
+                                         "X-Amz-Security-Token"}) {
+            signedRequest.request().firstMatchingHeader(name).ifPresent(value -> signedHeaders.put(name, value));
+        }
+        return signedHeaders;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.utils.IoUtils;
+
+class PayloadBufferTest {
+    private static final byte[] PAYLOAD = "{\"test\": \"val\"}".getBytes(UTF_8);
+
+    @Test
+    void readsPayloadKeptInMemory() throws IOException {
+        PayloadBuffer buffer = bufferOf(Long.MAX_VALUE);
+
+        assertFalse(buffer.isSpilled());
+        assertReadable(buffer);
+    }
+
+    @Test
+    void readsPayloadSpilledToDisk() throws IOException {
+        PayloadBuffer buffer = bufferOf(1);
+
+        assertTrue(buffer.isSpilled());
+        assertReadable(buffer);
+    }
+
+    @Test
+    void growsBeyondTheInitialCapacity() throws IOException {
+        long sizeHint = Integer.MAX_VALUE;
+        PayloadBuffer buffer = new PayloadBuffer(Long.MAX_VALUE, sizeHint);
+        byte[] payload = new byte[BufferPool.MAX_POOLED_SIZE + 1];
+        payload[payload.length - 1] = 1;
+        buffer.write(payload);
+        buffer.close();
+
+        assertEquals(BufferPool.MAX_POOLED_SIZE, PayloadBuffer.initialCapacity(Long.MAX_VALUE, sizeHint));
+        assertEquals(PAYLOAD.length, PayloadBuffer.initialCapacity(Long.MAX_VALUE, PAYLOAD.length));
+        assertArrayEquals(payload, IoUtils.toByteArray(buffer.newInputStream()));
+    }
+
+    @Test
+    void exposesReadOnlyViews() throws IOException {
+        ByteBuffer view = bufferOf(Long.MAX_VALUE).views()[0];
+
+        assertTrue(view.isReadOnly());
+        assertThrows(ReadOnlyBufferException.class, () -> view.put(0, (byte) 0));
+    }
+
+    @Test
+    void resetsStreamToMark() throws IOException {
+        InputStream stream = bufferOf(1).newInputStream();
+        assertTrue(stream.markSupported());
+
+        stream.mark(PAYLOAD.length);
+        IoUtils.toByteArray(stream);
+        stream.reset();
+
+        assertArrayEquals(PAYLOAD, IoUtils.toByteArray(stream));
+    }
+
+    @Test
+    void cannotBeReadOncePooledBufferIsReleased() throws IOException {
+        PayloadBuffer buffer = PayloadBuffer.pooled(Long.MAX_VALUE, PAYLOAD.length);
+        buffer.write(PAYLOAD);
+        buffer.close();
+        assertArrayEquals(PAYLOAD, IoUtils.toByteArray(buffer.newInputStream()));
+
+        buffer.release();
+
+        assertThrows(IllegalStateException.class, buffer::newInputStream);
+    }
+
+    @Test
+    void reusesReleasedArraysOnTheSameThread() {
+        byte[] array = BufferPool.acquire(PAYLOAD.length);
+        BufferPool.release(array);
+
+        assertSame(array, BufferPool.acquire(PAYLOAD.length));
+        assertNotSame(array, BufferPool.acquire(PAYLOAD.length));
+        BufferPool.release(new byte[BufferPool.MAX_POOLED_SIZE + 1]);
+        assertEquals(PAYLOAD.length, BufferPool.acquire(PAYLOAD.length).length);
+    }
+
+    @Test
+    void cannotBeReadWhileWritten() {
+        PayloadBuffer buffer = new PayloadBuffer(Long.MAX_VALUE);
+
+        assertThrows(IllegalStateException.class, buffer::newInputStream);
+    }
+
+    private static PayloadBuffer bufferOf(long spillThreshold) throws IOException {
+        PayloadBuffer buffer = new PayloadBuffer(spillThreshold);
+        buffer.write(PAYLOAD);
+        buffer.close();
+        return buffer;
+    }
+
+    private static void assertReadable(PayloadBuffer buffer) throws IOException {
+        assertEquals(PAYLOAD.length, buffer.size());
+        // every view starts from the beginning
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(PAYLOAD, IoUtils.toByteArray(buffer.newInputStream()));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            buffer.writeTo(out);
+            assertArrayEquals(PAYLOAD, out.toByteArray());
+            ByteBuffer view = buffer.views()[0];
+            byte[] viewed = new byte[view.remaining()];
+            view.get(viewed);
+            assertArrayEquals(PAYLOAD, viewed);
+        }
+    }
+}
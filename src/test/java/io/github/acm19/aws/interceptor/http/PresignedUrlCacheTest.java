@@ -0,0 +1,73 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class PresignedUrlCacheTest {
+    private static final Instant SIGNED_AT = Instant.parse("2024-02-29T23:59:59Z");
+    private static final Duration VALIDITY = Duration.ofMinutes(15);
+
+    @Test
+    void reusesQueryUntilShortlyBeforeExpiry() {
+        PresignedUrlCache cache = new PresignedUrlCache();
+        Instant expiresAt = SIGNED_AT.plus(VALIDITY);
+        cache.put("key", "X-Amz-Signature=a", SIGNED_AT, expiresAt);
+
+        assertEquals("X-Amz-Signature=a", cache.get("key", SIGNED_AT));
+        assertEquals("X-Amz-Signature=a", cache.get("key", expiresAt.minus(PresignedUrlCache.MAX_REFRESH_MARGIN)
+                                                                   .minusSeconds(1)));
+        assertNull(cache.get("key", expiresAt.minus(PresignedUrlCache.MAX_REFRESH_MARGIN)));
+        assertNull(cache.get("other", SIGNED_AT));
+    }
+
+    @Test
+    void reusesShortLivedQueryForHalfItsValidity() {
+        PresignedUrlCache cache = new PresignedUrlCache();
+        Duration validity = PresignedUrlCache.MAX_REFRESH_MARGIN;
+        cache.put("key", "X-Amz-Signature=a", SIGNED_AT, SIGNED_AT.plus(validity));
+
+        assertEquals("X-Amz-Signature=a", cache.get("key", SIGNED_AT.plus(validity.dividedBy(2)).minusSeconds(1)));
+        assertNull(cache.get("key", SIGNED_AT.plus(validity.dividedBy(2))));
+    }
+
+    @Test
+    void keysRequestsByEverythingTheySign() {
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Accept", Collections.singletonList("application/json"));
+        String key = PresignedUrlCache.key("GET", "https://example.com/status", headers, "AKIDEXAMPLE");
+
+        assertEquals(key, PresignedUrlCache.key("GET", "https://example.com/status", headers, "AKIDEXAMPLE"));
+        assertNotEquals(key, PresignedUrlCache.key("HEAD", "https://example.com/status", headers, "AKIDEXAMPLE"));
+        assertNotEquals(key, PresignedUrlCache.key("GET", "https://example.com/status?a", headers, "AKIDEXAMPLE"));
+        assertNotEquals(key, PresignedUrlCache.key("GET", "https://example.com/status", headers, "AKIDOTHER"));
+        assertNotEquals(key, PresignedUrlCache.key("GET", "https://example.com/status",
+                                                   Collections.emptyMap(), "AKIDEXAMPLE"));
+    }
+
+    @Test
+    void isBoundedInSize() {
+        PresignedUrlCache cache = new PresignedUrlCache();
+        for (int i = 0; i <= PresignedUrlCache.MAX_SIZE; i++) {
+            cache.put("key" + i, "X-Amz-Signature=" + i, SIGNED_AT, SIGNED_AT.plus(VALIDITY));
+        }
+
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+
+class RefreshingCredentialsProviderTest {
+    private static final Instant NOW = Instant.parse("2024-02-29T12:00:00Z");
+    private static final Duration REFRESH_AHEAD = Duration.ofMinutes(1);
+    private static final Clock CLOCK = Clock.fixed(NOW, ZoneOffset.UTC);
+    private static final int REFRESHES = 10;
+
+    @Test
+    void waitsForCredentialsOnlyWhenNoneAreCurrent() {
+        AtomicInteger resolutions = new AtomicInteger();
+        RefreshingCredentialsProvider provider = new RefreshingCredentialsProvider(
+                () -> credentials(resolutions.incrementAndGet(), NOW.plus(Duration.ofHours(1))), REFRESH_AHEAD, CLOCK);
+
+        assertFalse(provider.isReady());
+        AwsCredentials credentials = provider.resolveCredentials();
+
+        assertTrue(provider.isReady());
+        assertSame(credentials, provider.resolveCredentials());
+        assertEquals(1, resolutions.get());
+    }
+
+    @Test
+    void refreshesAheadOfExpiryWhileServingCurrentCredentials() {
+        AtomicInteger resolutions = new AtomicInteger();
+        RefreshingCredentialsProvider provider = new RefreshingCredentialsProvider(
+                () -> credentials(resolutions.incrementAndGet(), NOW.plus(REFRESH_AHEAD)), REFRESH_AHEAD, CLOCK);
+        AwsCredentials expiring = provider.resolveCredentials();
+
+        // the credentials are due for a refresh, but still valid
+        assertSame(expiring, provider.resolveCredentials());
+        AwsCredentials refreshed = provider.refresh().join();
+
+        assertEquals("AKID2", refreshed.accessKeyId());
+        assertSame(refreshed, provider.resolveCredentials());
+    }
+
+    @Test
+    void waitsBetweenRefreshesOfShortLivedCredentials() {
+        AtomicInteger resolutions = new AtomicInteger();
+        // the credentials expire before they would be refreshed ahead of their expiry
+        RefreshingCredentialsProvider provider = new RefreshingCredentialsProvider(
+                () -> credentials(resolutions.incrementAndGet(), NOW.plus(REFRESH_AHEAD.dividedBy(2))),
+                REFRESH_AHEAD, CLOCK);
+        AwsCredentials credentials = provider.resolveCredentials();
+
+        assertEquals(NOW.plus(RefreshingCredentialsProvider.MIN_REFRESH_INTERVAL), provider.refreshAt());
+        for (int i = 0; i < REFRESHES; i++) {
+            assertSame(credentials, provider.resolveCredentials());
+        }
+        assertEquals(1, resolutions.get());
+    }
+
+    @Test
+    void refreshesCredentialsWithoutExpiryPeriodically() {
+        AtomicInteger resolutions = new AtomicInteger();
+        RefreshingCredentialsProvider provider = new RefreshingCredentialsProvider(
+                () -> credentials(resolutions.incrementAndGet(), null), REFRESH_AHEAD,
+                Clock.offset(CLOCK, REFRESH_AHEAD.negated()));
+        AwsCredentials credentials = provider.resolveCredentials();
+
+        assertSame(credentials, provider.resolveCredentials());
+        assertEquals(1, resolutions.get());
+    }
+
+    @Test
+    void throwsFailuresToResolveCredentials() {
+        IllegalStateException failure = new IllegalStateException("unavailable");
+        RefreshingCredentialsProvider provider = new RefreshingCredentialsProvider(() -> {
+            throw failure;
+        }, REFRESH_AHEAD, CLOCK);
+
+        assertSame(failure, assertThrows(IllegalStateException.class, provider::resolveCredentials));
+        assertFalse(provider.isReady());
+    }
+
+    private static AwsCredentials credentials(int resolution, Instant expirationTime) {
+        return AwsSessionCredentials.builder()
+                .accessKeyId("AKID" + resolution)
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expirationTime(expirationTime)
+                .build();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.net.URI;
+import org.apache.http.HttpHost;
+import org.apache.http.client.utils.URIBuilder;
+import org.junit.jupiter.api.Test;
+
+class RequestUriCacheTest {
+    private static final int PORT = 8443;
+    private static final HttpHost[] HOSTS = {
+        new HttpHost("example.com"),
+        new HttpHost("Example.com", PORT, "https"),
+        new HttpHost("::1", -1, "https"),
+    };
+
+    private static final String[] URIS = {
+        "/",
+        "/index/_bulk",
+        "/index/_doc/1?refresh=true&routing=a%20b",
+        "/foo-2017-02-25%2Cfoo-2017-02-26/_search?a=b#fragment",
+        "/a/./b/../c",
+        "http://other.com:8080/index/_doc?q=x",
+        "https://other.com",
+        "https://other.com?q=x",
+    };
+
+    @Test
+    void resolvesUrisLikeUriBuilder() throws Exception {
+        RequestUriCache cache = new RequestUriCache();
+        for (HttpHost host : HOSTS) {
+            for (String uri : URIS) {
+                URI expected = new URIBuilder(uri)
+                        .setHost(host.getHostName())
+                        .setScheme(host.getSchemeName())
+                        .setPort(host.getPort())
+                        .build();
+                assertEquals(expected, cache.uri(host, uri), host + " " + uri);
+                assertSame(cache.uri(host, uri), cache.uri(host, uri), host + " " + uri);
+            }
+        }
+    }
+
+    @Test
+    void leavesOtherRequestLinesToUriBuilder() throws Exception {
+        RequestUriCache cache = new RequestUriCache();
+        HttpHost host = HOSTS[0];
+
+        assertNull(cache.uri(host, "*"));
+        assertNull(cache.uri(host, "//authority/path"));
+        assertNull(cache.uri(host, "http://user@other.com/path"));
+        assertNull(cache.uri(host, "?#!@*%"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class SignatureMemoTest {
+    private static final String AMZ_DATE = "20240229T235959Z";
+
+    @Test
+    void returnsSignatureOfTheSameSecretKeyOnly() {
+        SignatureMemo signatures = new SignatureMemo();
+        signatures.put("request", AMZ_DATE, "secret", "authorization");
+
+        assertEquals("authorization", signatures.get("request", "secret"));
+        assertNull(signatures.get("request", "rotated"));
+        assertNull(signatures.get("other", "secret"));
+    }
+
+    @Test
+    void dropsSignaturesOfEarlierSeconds() {
+        SignatureMemo signatures = new SignatureMemo();
+        signatures.put("request", AMZ_DATE, "secret", "authorization");
+        signatures.put("next", "20240301T000000Z", "secret", "authorization");
+
+        assertNull(signatures.get("request", "secret"));
+        assertEquals(1, signatures.size());
+    }
+
+    @Test
+    void isBoundedInSize() {
+        SignatureMemo signatures = new SignatureMemo();
+        for (int i = 0; i <= SignatureMemo.MAX_SIZE; i++) {
+            signatures.put("request" + i, AMZ_DATE, "secret", "authorization");
+        }
+
+        assertEquals(1, signatures.size());
+    }
+}
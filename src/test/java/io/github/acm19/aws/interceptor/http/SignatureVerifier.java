@@ -0,0 +1,332 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import okhttp3.mockwebserver.RecordedRequest;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.auth.aws.internal.signer.CredentialScope;
+import software.amazon.awssdk.http.auth.aws.internal.signer.V4CanonicalRequest;
+import software.amazon.awssdk.http.auth.aws.internal.signer.V4Properties;
+import software.amazon.awssdk.http.auth.aws.internal.signer.V4RequestSigner;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.http.auth.aws.signer.SignerConstant;
+import software.amazon.awssdk.http.auth.spi.signer.HttpSigner;
+import software.amazon.awssdk.http.auth.spi.signer.SignedRequest;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.utils.BinaryUtils;
+import software.amazon.awssdk.utils.IoUtils;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+/**
+ * Recomputes the signature of a recorded request with the AWS SDK signer.
+ */
+final class SignatureVerifier {
+    static final String SERVICE = "servicename";
+    static final Region REGION = Region.AF_SOUTH_1;
+    static final AwsCredentialsProvider CREDENTIALS = StaticCredentialsProvider.create(
+            AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY"));
+
+    private static final Pattern SIGNED_HEADERS = Pattern.compile("SignedHeaders=([^,]+)");
+    private static final Pattern SIGNATURE = Pattern.compile("Signature=([0-9a-f]+)");
+    private static final int HEX_RADIX = 16;
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter
+            .ofPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private SignatureVerifier() {
+    }
+
+    /**
+     * Returns the {@code Authorization} header the SDK signer computes for the
+     * headers the recorded request claims to have signed and its actual body.
+     *
+     * @param recorded request received by the server
+     * @param body     body received by the server
+     * @return the expected {@code Authorization} header
+     */
+    static String expectedAuthorization(RecordedRequest recorded, byte[] body) {
+        SdkHttpFullRequest sdkRequest = signedRequest(recorded);
+        Instant signingTime = Instant.from(AMZ_DATE.parse(recorded.getHeader("X-Amz-Date")));
+        Clock signingClock = Clock.fixed(signingTime, ZoneOffset.UTC);
+        String contentSha256 = recorded.getHeader("x-amz-content-sha256");
+
+        if (SignerConstant.STREAMING_SIGNED_PAYLOAD.equals(contentSha256)) {
+            // the SDK signer only encodes chunked payloads in chunks of its own size
+            return V4RequestSigner.header(V4Properties.builder()
+                            .credentials(CREDENTIALS.resolveCredentials())
+                            .credentialScope(new CredentialScope(REGION.id(), SERVICE, signingTime))
+                            .signingClock(signingClock)
+                            .doubleUrlEncode(true)
+                            .normalizePath(true)
+                            .build())
+                    .sign(sdkRequest.toBuilder())
+                    .getSignedRequest()
+                    .build()
+                    .firstMatchingHeader("Authorization")
+                    .orElse(null);
+        }
+
+        boolean payloadSigned = !SignerConstant.UNSIGNED_PAYLOAD.equals(contentSha256);
+        SignedRequest signedRequest = AwsV4HttpSigner.create().sign(r -> r
+                .identity(CREDENTIALS.resolveCredentials())
+                .request(sdkRequest)
+                .payload(body.length == 0 || !payloadSigned ? null : ContentStreamProvider.fromByteArray(body))
+                .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, SERVICE)
+                .putProperty(AwsV4HttpSigner.REGION_NAME, REGION.id())
+                .putProperty(AwsV4HttpSigner.PAYLOAD_SIGNING_ENABLED, payloadSigned)
+                .putProperty(HttpSigner.SIGNING_CLOCK, signingClock));
+
+        return signedRequest.request().firstMatchingHeader("Authorization").orElse(null);
+    }
+
+    /**
+     * Returns the path and presigned query string the SDK signer computes for
+     * the recorded request, at the time, with the validity and for the headers
+     * its presigned query string claims.
+     *
+     * @param recorded request received by the server
+     * @return the expected path and query string
+     */
+    static String expectedPresignedPath(RecordedRequest recorded) {
+        String path = recorded.getPath();
+        int queryStart = path.indexOf('?');
+        StringBuilder unsignedPath = new StringBuilder(path.substring(0, queryStart));
+        Map<String, String> signatureParameters = new HashMap<>();
+        char separator = '?';
+        for (String parameter : path.substring(queryStart + 1).split("&")) {
+            if (parameter.startsWith("X-Amz-")) {
+                int valueStart = parameter.indexOf('=');
+                signatureParameters.put(parameter.substring(0, valueStart),
+                                        SdkHttpUtils.urlDecode(parameter.substring(valueStart + 1)));
+            } else {
+                unsignedPath.append(separator).append(parameter);
+                separator = '&';
+            }
+        }
+
+        SdkHttpFullRequest.Builder request = SdkHttpFullRequest.builder()
+                .method(SdkHttpMethod.fromValue(recorded.getMethod()))
+                .uri(URI.create("http://" + recorded.getHeader("Host") + unsignedPath));
+        for (String name : signatureParameters.get("X-Amz-SignedHeaders").split(";")) {
+            request.putHeader(name, recorded.getHeaders().values(name));
+        }
+        SdkHttpFullRequest sdkRequest = request.build();
+        Instant signingTime = Instant.from(AMZ_DATE.parse(signatureParameters.get("X-Amz-Date")));
+        SignedRequest signedRequest = AwsV4HttpSigner.create().sign(r -> r
+                .identity(CREDENTIALS.resolveCredentials())
+                .request(sdkRequest)
+                .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, SERVICE)
+                .putProperty(AwsV4HttpSigner.REGION_NAME, REGION.id())
+                .putProperty(AwsV4HttpSigner.AUTH_LOCATION, AwsV4HttpSigner.AuthLocation.QUERY_STRING)
+                .putProperty(AwsV4HttpSigner.EXPIRATION_DURATION,
+                             Duration.ofSeconds(Long.parseLong(signatureParameters.get("X-Amz-Expires"))))
+                .putProperty(HttpSigner.SIGNING_CLOCK, Clock.fixed(signingTime, ZoneOffset.UTC)));
+
+        URI signedUri = signedRequest.request().getUri();
+        return signedUri.getRawPath() + "?" + signedUri.getRawQuery();
+    }
+
+    /**
+     * Returns whether the SigV4a signature of a recorded request, signed with
+     * {@link #CREDENTIALS} for {@link #SERVICE}, is valid for the headers it
+     * claims to have signed.
+     *
+     * @param recorded request received by the server
+     * @return {@code true} if the signature is valid
+     * @throws Exception if the signature cannot be verified
+     */
+    static boolean verifiesSigV4a(RecordedRequest recorded) throws Exception {
+        Matcher matcher = SIGNATURE.matcher(recorded.getHeader("Authorization"));
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("Request is not signed");
+        }
+        String canonicalRequest = new V4CanonicalRequest(signedRequest(recorded),
+                                                         recorded.getHeader("x-amz-content-sha256"),
+                                                         new V4CanonicalRequest.Options(true, true))
+                .getCanonicalRequestString();
+        String amzDate = recorded.getHeader("X-Amz-Date");
+        String stringToSign = "AWS4-ECDSA-P256-SHA256\n" + amzDate + "\n"
+                + amzDate.substring(0, "yyyyMMdd".length()) + "/" + SERVICE + "/aws4_request\n"
+                + sha256Hex(canonicalRequest.getBytes(UTF_8));
+
+        Signature signature = Signature.getInstance("SHA256withECDSA");
+        signature.initVerify(sigV4aPublicKey());
+        signature.update(stringToSign.getBytes(UTF_8));
+        return signature.verify(BinaryUtils.fromHex(matcher.group(1)));
+    }
+
+    private static SdkHttpFullRequest signedRequest(RecordedRequest recorded) {
+        Matcher matcher = SIGNED_HEADERS.matcher(recorded.getHeader("Authorization"));
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("Request is not signed");
+        }
+
+        SdkHttpFullRequest.Builder request = SdkHttpFullRequest.builder()
+                .method(SdkHttpMethod.fromValue(recorded.getMethod()))
+                .uri(URI.create("http://" + recorded.getHeader("Host") + recorded.getPath()));
+        for (String name : matcher.group(1).split(";")) {
+            request.putHeader(name, recorded.getHeaders().values(name));
+        }
+        return request.build();
+    }
+
+    /**
+     * Computes the public key of the SigV4a key of {@link #CREDENTIALS} by
+     * multiplying the generator of P-256 with its private value.
+     *
+     * @return the public key
+     * @throws Exception if EC keys are not available
+     */
+    private static PublicKey sigV4aPublicKey() throws Exception {
+        AwsCredentialsIdentity credentials = CREDENTIALS.resolveCredentials();
+        BigInteger privateValue = SigningKeyCache.ecdsaPrivateValue(credentials.accessKeyId(),
+                                                                    credentials.secretAccessKey(),
+                                                                    Digests.defaults());
+        ECParameterSpec curve = SigningKeyCache.p256();
+        ECPoint point = ECPoint.POINT_INFINITY;
+        for (int i = privateValue.bitLength() - 1; i >= 0; i--) {
+            point = add(curve, point, point);
+            if (privateValue.testBit(i)) {
+                point = add(curve, point, curve.getGenerator());
+            }
+        }
+        return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(point, curve));
+    }
+
+    private static ECPoint add(ECParameterSpec curve, ECPoint a, ECPoint b) {
+        if (a.equals(ECPoint.POINT_INFINITY)) {
+            return b;
+        }
+        if (b.equals(ECPoint.POINT_INFINITY)) {
+            return a;
+        }
+        BigInteger p = ((ECFieldFp) curve.getCurve().getField()).getP();
+        BigInteger slope;
+        if (a.equals(b)) {
+            BigInteger x2 = a.getAffineX().pow(2);
+            slope = x2.add(x2).add(x2).add(curve.getCurve().getA())
+                    .multiply(a.getAffineY().shiftLeft(1).modInverse(p)).mod(p);
+        } else if (a.getAffineX().equals(b.getAffineX())) {
+            return ECPoint.POINT_INFINITY;
+        } else {
+            slope = b.getAffineY().subtract(a.getAffineY())
+                    .multiply(b.getAffineX().subtract(a.getAffineX()).modInverse(p)).mod(p);
+        }
+        BigInteger x = slope.pow(2).subtract(a.getAffineX()).subtract(b.getAffineX()).mod(p);
+        BigInteger y = slope.multiply(a.getAffineX().subtract(x)).subtract(a.getAffineY()).mod(p);
+        return new ECPoint(x, y);
+    }
+
+    /**
+     * Decodes a {@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD} body, checking the
+     * signature of every chunk.
+     *
+     * @param recorded request received by the server
+     * @param body     body received by the server
+     * @return the decoded payload
+     * @throws Exception if a chunk is malformed or its signature does not match
+     */
+    static byte[] decodeChunkedPayload(RecordedRequest recorded, byte[] body) throws Exception {
+        Matcher matcher = SIGNATURE.matcher(recorded.getHeader("Authorization"));
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("Request is not signed");
+        }
+        String amzDate = recorded.getHeader("X-Amz-Date");
+        String date = amzDate.substring(0, "yyyyMMdd".length());
+        String scope = date + "/" + REGION.id() + "/" + SERVICE + "/aws4_request";
+        byte[] signingKey = hmacSha256(
+                ("AWS4" + CREDENTIALS.resolveCredentials().secretAccessKey()).getBytes(UTF_8), date);
+        signingKey = hmacSha256(signingKey, REGION.id());
+        signingKey = hmacSha256(signingKey, SERVICE);
+        signingKey = hmacSha256(signingKey, "aws4_request");
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        String previousSignature = matcher.group(1);
+        int position = 0;
+        int chunkSize;
+        do {
+            int headerEnd = indexOfCrlf(body, position);
+            String[] header = new String(body, position, headerEnd - position, UTF_8).split(";chunk-signature=");
+            chunkSize = Integer.parseInt(header[0], HEX_RADIX);
+            int dataStart = headerEnd + 2;
+            byte[] chunk = Arrays.copyOfRange(body, dataStart, dataStart + chunkSize);
+            String stringToSign = "AWS4-HMAC-SHA256-PAYLOAD\n" + amzDate + "\n" + scope + "\n" + previousSignature
+                    + "\n" + sha256Hex(new byte[0]) + "\n" + sha256Hex(chunk);
+            previousSignature = BinaryUtils.toHex(hmacSha256(signingKey, stringToSign));
+            if (!previousSignature.equals(header[1])) {
+                throw new IllegalArgumentException("Invalid signature for chunk at " + position);
+            }
+            payload.write(body, dataStart, chunkSize);
+            position = dataStart + chunkSize + 2;
+        } while (chunkSize > 0);
+
+        if (position != body.length) {
+            throw new IllegalArgumentException("Unexpected data after the final chunk");
+        }
+        return payload.toByteArray();
+    }
+
+    private static int indexOfCrlf(byte[] data, int from) {
+        for (int i = from; i < data.length - 1; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Missing chunk header");
+    }
+
+    private static byte[] hmacSha256(byte[] key, String data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data.getBytes(UTF_8));
+    }
+
+    static byte[] gunzip(byte[] data) throws Exception {
+        try (GZIPInputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return IoUtils.toByteArray(gzipStream);
+        }
+    }
+
+    static String sha256Hex(byte[] data) throws Exception {
+        return BinaryUtils.toHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.http.auth.spi.signer.HttpSigner;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+import software.amazon.awssdk.regions.Region;
+
+class SignerRegistryTest {
+    private static final int CONTEXTS = 7;
+    private static final Duration REFRESH_AHEAD = Duration.ofMinutes(5);
+
+    @Test
+    void sharesSignersOfTheSameContext() {
+        SignerRegistry registry = new SignerRegistry();
+        RequestSigner signer = registry.signer(SignatureVerifier.SERVICE, AwsV4HttpSigner.create(),
+                                               SignatureVerifier.CREDENTIALS, SignatureVerifier.REGION,
+                                               SigningOptions.builder().credentialRefreshAhead(REFRESH_AHEAD).build());
+
+        // a new SDK signer, and options built the same way, as each client would have
+        assertSame(signer, registry.signer(SignatureVerifier.SERVICE, AwsV4HttpSigner.create(),
+                                           SignatureVerifier.CREDENTIALS, SignatureVerifier.REGION,
+                                           SigningOptions.builder().credentialRefreshAhead(REFRESH_AHEAD).build()));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void separatesSignersOfOtherContexts() {
+        SignerRegistry registry = new SignerRegistry();
+        SigningOptions options = SigningOptions.defaults();
+        HttpSigner<AwsCredentialsIdentity> custom = new AddHeaderSigner("Signature", "wuzzle");
+        RequestSigner signer = registry.signer(SignatureVerifier.SERVICE, AwsV4HttpSigner.create(),
+                                               SignatureVerifier.CREDENTIALS, SignatureVerifier.REGION, options);
+
+        assertNotSame(signer, registry.signer(SignatureVerifier.SERVICE, AwsV4HttpSigner.create(),
+                                              SignatureVerifier.CREDENTIALS, Region.EU_WEST_1, options));
+        assertNotSame(signer, registry.signer("other", AwsV4HttpSigner.create(),
+                                              SignatureVerifier.CREDENTIALS, SignatureVerifier.REGION, options));
+        assertNotSame(signer, registry.signer(SignatureVerifier.SERVICE, AwsV4HttpSigner.create(),
+                                              SignatureVerifier.CREDENTIALS, SignatureVerifier.REGION,
+                                              SigningOptions.builder().nativeSigning(true).build()));
+        assertNotSame(signer, registry.signer(SignatureVerifier.SERVICE, AwsV4HttpSigner.create(),
+                                              SignatureVerifier.CREDENTIALS::resolveCredentials,
+                                              SignatureVerifier.REGION, options));
+        // signers outside the SDK may be configured differently, and are compared by identity
+        RequestSigner customSigner = registry.signer(SignatureVerifier.SERVICE, custom, SignatureVerifier.CREDENTIALS,
+                                                     SignatureVerifier.REGION, options);
+        assertSame(customSigner, registry.signer(SignatureVerifier.SERVICE, custom, SignatureVerifier.CREDENTIALS,
+                                                 SignatureVerifier.REGION, options));
+        assertNotSame(customSigner, registry.signer(SignatureVerifier.SERVICE,
+                                                    new AddHeaderSigner("Signature", "wuzzle"),
+                                                    SignatureVerifier.CREDENTIALS, SignatureVerifier.REGION, options));
+        assertEquals(CONTEXTS, registry.size());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedContextWhenFull() {
+        SignerRegistry registry = new SignerRegistry();
+        RequestSigner first = registry.signer(SignatureVerifier.SERVICE, AwsV4HttpSigner.create(),
+                                              SignatureVerifier.CREDENTIALS, SignatureVerifier.REGION,
+                                              SigningOptions.defaults());
+        RequestSigner second = registry.signer("service1", AwsV4HttpSigner.create(), SignatureVerifier.CREDENTIALS,
+                                               SignatureVerifier.REGION, SigningOptions.defaults());
+        for (int i = 2; i < SignerRegistry.MAX_SIZE; i++) {
+            registry.signer("service" + i, AwsV4HttpSigner.create(), SignatureVerifier.CREDENTIALS,
+                            SignatureVerifier.REGION, SigningOptions.defaults());
+        }
+        // the first context is used again, so the second one is the least recently used
+        assertSame(first, registry.signer(SignatureVerifier.SERVICE, AwsV4HttpSigner.create(),
+                                          SignatureVerifier.CREDENTIALS, SignatureVerifier.REGION,
+                                          SigningOptions.defaults()));
+
+        registry.signer("other", AwsV4HttpSigner.create(), SignatureVerifier.CREDENTIALS, SignatureVerifier.REGION,
+                        SigningOptions.defaults());
+
+        assertEquals(SignerRegistry.MAX_SIZE, registry.size());
+        assertSame(first, registry.signer(SignatureVerifier.SERVICE, AwsV4HttpSigner.create(),
+                                          SignatureVerifier.CREDENTIALS, SignatureVerifier.REGION,
+                                          SigningOptions.defaults()));
+        assertNotSame(second, registry.signer("service1", AwsV4HttpSigner.create(), SignatureVerifier.CREDENTIALS,
+                                              SignatureVerifier.REGION, SigningOptions.defaults()));
+
+        registry.clear();
+        assertEquals(0, registry.size());
+    }
+}
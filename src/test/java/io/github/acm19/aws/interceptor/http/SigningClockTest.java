@@ -0,0 +1,79 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+
+class SigningClockTest {
+    private static final Instant NOW = Instant.parse("2024-02-29T23:59:58.250Z");
+    private static final String SCOPE_SUFFIX = "us-east-1/service/aws4_request";
+
+    @Test
+    void formatsTheDateAndScope() {
+        SigningClock.Tick tick = new SigningClock(Clock.fixed(NOW, ZoneOffset.UTC), SCOPE_SUFFIX).tick();
+
+        assertEquals("20240229T235958Z", tick.amzDate());
+        assertEquals("20240229", tick.date());
+        assertEquals("20240229/" + SCOPE_SUFFIX, tick.scope());
+        assertEquals(Instant.parse("2024-02-29T23:59:58Z"), tick.instant());
+    }
+
+    @Test
+    void formatsOncePerSecond() {
+        MutableClock clock = new MutableClock(NOW);
+        SigningClock signingClock = new SigningClock(clock, SCOPE_SUFFIX);
+        SigningClock.Tick tick = signingClock.tick();
+        clock.now = NOW.plus(Duration.ofSeconds(1).dividedBy(2));
+
+        assertSame(tick, signingClock.tick());
+
+        clock.now = NOW.plusSeconds(1);
+        SigningClock.Tick nextSecond = signingClock.tick();
+
+        assertNotSame(tick, nextSecond);
+        assertEquals("20240229T235959Z", nextSecond.amzDate());
+        assertSame(tick.scope(), nextSecond.scope());
+
+        clock.now = NOW.plusSeconds(2);
+
+        assertEquals("20240301/" + SCOPE_SUFFIX, signingClock.tick().scope());
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
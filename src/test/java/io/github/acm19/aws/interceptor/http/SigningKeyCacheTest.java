@@ -0,0 +1,87 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.math.BigInteger;
+import java.security.PrivateKey;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+import software.amazon.awssdk.utils.BinaryUtils;
+
+class SigningKeyCacheTest {
+    private static final int HEX_RADIX = 16;
+    private static final AwsCredentialsIdentity CREDENTIALS =
+            AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+
+    @Test
+    void derivesSigningKey() {
+        // example from the AWS documentation on deriving the signing key
+        assertEquals("f4780e2d9f65fa895f9c67b32ce1baf0b0d8a43505a000a1a9e090d414db404d",
+                     BinaryUtils.toHex(new SigningKeyCache().signingKey(CREDENTIALS, "20120215", "us-east-1", "iam")));
+    }
+
+    @Test
+    void reusesSigningKeyForTheSameDay() {
+        SigningKeyCache cache = new SigningKeyCache();
+        byte[] signingKey = cache.signingKey(CREDENTIALS, "20120215", "us-east-1", "iam");
+
+        assertSame(signingKey, cache.signingKey(
+                AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY"),
+                "20120215", "us-east-1", "iam"));
+        assertNotSame(signingKey, cache.signingKey(CREDENTIALS, "20120215", "us-west-2", "iam"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void replacesSigningKeyWhenDateRollsOverOrSecretRotates() {
+        SigningKeyCache cache = new SigningKeyCache();
+        byte[] signingKey = cache.signingKey(CREDENTIALS, "20120215", "us-east-1", "iam");
+
+        byte[] nextDayKey = cache.signingKey(CREDENTIALS, "20120216", "us-east-1", "iam");
+        byte[] rotatedKey = cache.signingKey(AwsBasicCredentials.create("AKIDEXAMPLE", "rotated"),
+                                             "20120216", "us-east-1", "iam");
+
+        assertNotSame(signingKey, nextDayKey);
+        assertNotSame(nextDayKey, rotatedKey);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void derivesEcdsaKey() {
+        // example from the SigV4a key derivation tests of the AWS CRT
+        assertEquals(new BigInteger("7fd3bd010c0d9c292141c2b77bfbde1042c92e6836fff749d1269ec890fca1bd", HEX_RADIX),
+                     SigningKeyCache.ecdsaPrivateValue("AKISORANDOMAASORANDOM",
+                                                       "q+jcrXGc+0zWN6uzclKVhvMmUsIfRPa4rlRandom",
+                                                       Digests.defaults()));
+    }
+
+    @Test
+    void reusesEcdsaKeyUntilSecretRotates() {
+        SigningKeyCache cache = new SigningKeyCache();
+        PrivateKey ecdsaKey = cache.ecdsaKey(CREDENTIALS);
+
+        assertSame(ecdsaKey, cache.ecdsaKey(CREDENTIALS));
+        assertNotSame(ecdsaKey, cache.ecdsaKey(AwsBasicCredentials.create("AKIDEXAMPLE", "rotated")));
+    }
+
+    @Test
+    void isBoundedInSize() {
+        SigningKeyCache cache = new SigningKeyCache();
+        for (int i = 0; i <= SigningKeyCache.MAX_SIZE; i++) {
+            cache.signingKey(AwsBasicCredentials.create("AKID" + i, "secret"), "20120215", "us-east-1", "iam");
+        }
+
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.http;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import org.junit.jupiter.api.Test;
+
+class UnsignedPayloadPolicyTest {
+    private static final URI UPLOAD_URI = URI.create("https://bucket.s3.amazonaws.com/uploads/file");
+    private static final long SMALL = 10L;
+    private static final long LARGE = 10_000L;
+
+    @Test
+    void matchesHostIgnoringCase() {
+        UnsignedPayloadPolicy policy = UnsignedPayloadPolicy.host("Bucket.S3.amazonaws.com");
+
+        assertTrue(policy.appliesTo("PUT", UPLOAD_URI, SMALL));
+        assertFalse(policy.appliesTo("PUT", URI.create("https://example.com/uploads/file"), SMALL));
+    }
+
+    @Test
+    void matchesPathPrefix() {
+        UnsignedPayloadPolicy policy = UnsignedPayloadPolicy.pathPrefix("/uploads/");
+
+        assertTrue(policy.appliesTo("PUT", UPLOAD_URI, SMALL));
+        assertFalse(policy.appliesTo("PUT", URI.create("https://bucket.s3.amazonaws.com/other"), SMALL));
+    }
+
+    @Test
+    void matchesContentLength() {
+        UnsignedPayloadPolicy policy = UnsignedPayloadPolicy.contentLengthAtLeast(LARGE);
+
+        assertTrue(policy.appliesTo("PUT", UPLOAD_URI, LARGE));
+        assertTrue(policy.appliesTo("PUT", UPLOAD_URI, -1));
+        assertFalse(policy.appliesTo("PUT", UPLOAD_URI, SMALL));
+    }
+
+    @Test
+    void combinesPolicies() {
+        UnsignedPayloadPolicy policy = UnsignedPayloadPolicy.method("put")
+                .and(UnsignedPayloadPolicy.contentLengthAtLeast(LARGE))
+                .or(UnsignedPayloadPolicy.pathPrefix("/public/"));
+
+        assertTrue(policy.appliesTo("PUT", UPLOAD_URI, LARGE));
+        assertFalse(policy.appliesTo("PUT", UPLOAD_URI, SMALL));
+        assertFalse(policy.appliesTo("POST", UPLOAD_URI, LARGE));
+        assertTrue(policy.appliesTo("GET", URI.create("https://example.com/public/index.html"), SMALL));
+        assertFalse(UnsignedPayloadPolicy.none().appliesTo("PUT", UPLOAD_URI, LARGE));
+        assertTrue(UnsignedPayloadPolicy.all().appliesTo("PUT", UPLOAD_URI, LARGE));
+    }
+}
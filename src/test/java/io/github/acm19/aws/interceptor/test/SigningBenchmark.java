@@ -0,0 +1,84 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * The AWS Request Signing Interceptor Contributors require
+ * contributions made to this file be licensed under the
+ * Apache-2.0 license or a compatible open source license.
+ */
+
+package io.github.acm19.aws.interceptor.test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import io.github.acm19.aws.interceptor.http.AwsRequestSigningApacheInterceptor;
+import io.github.acm19.aws.interceptor.http.SigningOptions;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.regions.Region;
+
+/**
+ * Measures the time and the memory allocated to sign a typical OpenSearch
+ * request, with and without native signing. Each signed request is built
+ * anew, so the figures include building an Apache request.
+ */
+final class SigningBenchmark {
+    private static final int WARMUP_ITERATIONS = 100_000;
+    private static final int ITERATIONS = 200_000;
+    private static final AwsCredentialsProvider CREDENTIALS = StaticCredentialsProvider.create(
+            AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY"));
+
+    private SigningBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        run("sdk", SigningOptions.defaults());
+        run("native", SigningOptions.builder().nativeSigning(true).build());
+    }
+
+    private static void run(final String name, final SigningOptions options) throws Exception {
+        AwsRequestSigningApacheInterceptor interceptor = new AwsRequestSigningApacheInterceptor(
+                "es", AwsV4HttpSigner.create(), CREDENTIALS, Region.US_EAST_1, options);
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST,
+                             HttpHost.create("https://search-domain.us-east-1.es.amazonaws.com"));
+
+        sign(interceptor, context, WARMUP_ITERATIONS);
+        // getCurrentThreadAllocatedBytes() is only available from Java 14
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        sign(interceptor, context, ITERATIONS);
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+        System.out.printf("%-7s %,8d ns/op %,8d bytes/op%n", name, elapsed / ITERATIONS, allocated / ITERATIONS);
+    }
+
+    private static void sign(final AwsRequestSigningApacheInterceptor interceptor,
+                             final HttpContext context,
+                             final int iterations) throws HttpException, IOException {
+        for (int i = 0; i < iterations; i++) {
+            // a signed request already carries the signature headers, so every iteration signs a new one
+            interceptor.process(newRequest(), context);
+        }
+    }
+
+    private static HttpRequest newRequest() {
+        HttpRequest request = new BasicHttpRequest("GET", "/index/_search?size=10&from=0");
+        request.addHeader("Accept", "application/json");
+        request.addHeader("Content-Type", "application/json");
+        request.addHeader("User-Agent", "benchmark");
+        return request;
+    }
+}